@@ -0,0 +1,338 @@
+package org.trinkets.util.diff;
+
+/**
+ * Adaptive diff engine. Tiny inputs are compared by {@link org.trinkets.util.diff.LcsDiffEngine} as is.
+ * For other inputs engine skips equal tokens at begin and end of ranges, estimates size of remaining problem
+ * and selects the cheapest engine for it:
+ * <ul>
+ * <li>{@link org.trinkets.util.diff.BitParallelDiffEngine} for inputs with small alphabet, such as characters;</li>
+ * <li>{@link org.trinkets.util.diff.MyersDiffEngine} if estimated edit distance is small, it gives up and falls back
+ * to {@link org.trinkets.util.diff.LinearSpaceDiffEngine} if real distance is greater than maximal one;</li>
+ * <li>{@link org.trinkets.util.diff.LinearSpaceDiffEngine} for all other inputs.</li>
+ * </ul>
+ * Edit distance is estimated by sampling of X k-grams and looking them up in hashes of Y k-grams.
+ * Each selection can be reported to {@link org.trinkets.util.diff.AdaptiveDiffEngine.Listener}, so
+ * thresholds can be tuned.
+ *
+ * @author Alexey Efimov
+ */
+public class AdaptiveDiffEngine implements DiffEngine {
+    private static final int SAMPLE_SIZE = 256;
+
+    private final DiffEngine matrixEngine = new LcsDiffEngine();
+    private final DiffEngine bitParallelEngine = new BitParallelDiffEngine();
+    private final DiffEngine linearSpaceEngine = new LinearSpaceDiffEngine();
+
+    private long maxMatrixCells = 1L << 16;
+    private int maxBitParallelAlphabet = 256;
+    private long maxBitParallelWords = 1L << 22;
+    private long maxMyersDistance = 2048;
+    /**
+     * Estimation doesn't see moved blocks, so Myers engine gives up at the same distance
+     */
+    private DiffEngine myersEngine = new MyersDiffEngine(linearSpaceEngine, maxMyersDistance);
+
+    private Listener listener = null;
+
+    @Override
+    public String toString() {
+        return getClass().getName();
+    }
+
+    public void diff(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength, EditScript script) {
+        Selection selection = select(x, xOffset, xLength, y, yOffset, yLength);
+        if (listener != null) {
+            listener.selected(selection);
+        }
+
+        int prefix = selection.getPrefix();
+        int suffix = selection.getSuffix();
+        script.append(DiffNode.Type.UNCHANGED, prefix);
+        DiffEngine engine = getEngine(selection.getChoice());
+        if (engine != null) {
+            engine.diff(
+                x, xOffset + prefix, xLength - prefix - suffix,
+                y, yOffset + prefix, yLength - prefix - suffix,
+                script);
+        } else {
+            script.append(DiffNode.Type.REMOVED, xLength - prefix - suffix);
+            script.append(DiffNode.Type.ADDED, yLength - prefix - suffix);
+        }
+        script.append(DiffNode.Type.UNCHANGED, suffix);
+    }
+
+    /**
+     * Select engine for ranges.
+     *
+     * @param x       X ids
+     * @param xOffset Start of range in X list
+     * @param xLength Length of range in X list
+     * @param y       Y ids
+     * @param yOffset Start of range in Y list
+     * @param yLength Length of range in Y list
+     * @return Selection with engine and reason of choice.
+     */
+    public Selection select(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength) {
+        // Tiny ranges are compared as is, without skipping of equal tokens
+        long cells = (long) xLength * yLength;
+        if (cells <= maxMatrixCells) {
+            return new Selection(Choice.MATRIX, cells, maxMatrixCells, 0, 0, xLength, yLength, 0, -1);
+        }
+
+        // Skip equal tokens at begin and end
+        int prefix = 0;
+        while (prefix < xLength && prefix < yLength && x[xOffset + prefix] == y[yOffset + prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < xLength - prefix && suffix < yLength - prefix &&
+            x[xOffset + xLength - suffix - 1] == y[yOffset + yLength - suffix - 1]) {
+            suffix++;
+        }
+        int n = xLength - prefix - suffix;
+        int m = yLength - prefix - suffix;
+        if (n == 0 || m == 0) {
+            return new Selection(Choice.TRIVIAL, 0, 0, prefix, suffix, n, m, 0, n + m);
+        }
+
+        IdIndex alphabet = new IdIndex(y, yOffset + prefix, m);
+        long distance = estimateDistance(x, xOffset + prefix, n, y, yOffset + prefix, m, alphabet.size());
+
+        long words = (long) n * ((m + 63) >>> 6);
+        if (alphabet.size() <= maxBitParallelAlphabet && words <= maxBitParallelWords) {
+            return new Selection(Choice.BIT_PARALLEL, words, maxBitParallelWords, prefix, suffix, n, m, alphabet.size(), distance);
+        }
+        if (distance <= maxMyersDistance) {
+            return new Selection(Choice.MYERS, distance, maxMyersDistance, prefix, suffix, n, m, alphabet.size(), distance);
+        }
+        return new Selection(Choice.LINEAR_SPACE, distance, maxMyersDistance, prefix, suffix, n, m, alphabet.size(), distance);
+    }
+
+    /**
+     * Estimate edit distance. Sampled k-grams of X are looked up in hashes of all k-grams of Y, where k is
+     * selected so that random match of k-gram is unlikely for given alphabet. Count of found k-grams is used
+     * as estimation of LCS length.
+     *
+     * @return Estimated edit distance
+     */
+    private static long estimateDistance(int[] x, int xOffset, int n, int[] y, int yOffset, int m, int alphabet) {
+        int k = 1 + (int) Math.ceil(Math.log(n + m) / Math.log(Math.max(2, alphabet)));
+        k = Math.min(k, Math.min(n, m));
+        int[] hashes = new int[m - k + 1];
+        for (int j = 0; j < hashes.length; j++) {
+            hashes[j] = hash(y, yOffset + j, k);
+        }
+        IdIndex kgrams = new IdIndex(hashes, 0, hashes.length);
+        int step = Math.max(1, (n - k + 1) / SAMPLE_SIZE);
+        int samples = 0;
+        int matches = 0;
+        for (int i = 0; i + k <= n; i += step) {
+            samples++;
+            if (kgrams.indexOf(hash(x, xOffset + i, k)) >= 0) {
+                matches++;
+            }
+        }
+        long common = Math.min((long) n * matches / samples, m);
+        return n + m - 2 * common;
+    }
+
+    private static int hash(int[] ids, int offset, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + ids[offset + i];
+        }
+        return hash;
+    }
+
+    private DiffEngine getEngine(Choice choice) {
+        switch (choice) {
+            case MATRIX:
+                return matrixEngine;
+            case BIT_PARALLEL:
+                return bitParallelEngine;
+            case MYERS:
+                return myersEngine;
+            case LINEAR_SPACE:
+                return linearSpaceEngine;
+            default:
+                return null;
+        }
+    }
+
+    public Listener getListener() {
+        return listener;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public long getMaxMatrixCells() {
+        return maxMatrixCells;
+    }
+
+    public void setMaxMatrixCells(long maxMatrixCells) {
+        this.maxMatrixCells = maxMatrixCells;
+    }
+
+    public int getMaxBitParallelAlphabet() {
+        return maxBitParallelAlphabet;
+    }
+
+    public void setMaxBitParallelAlphabet(int maxBitParallelAlphabet) {
+        this.maxBitParallelAlphabet = maxBitParallelAlphabet;
+    }
+
+    public long getMaxBitParallelWords() {
+        return maxBitParallelWords;
+    }
+
+    public void setMaxBitParallelWords(long maxBitParallelWords) {
+        this.maxBitParallelWords = maxBitParallelWords;
+    }
+
+    public long getMaxMyersDistance() {
+        return maxMyersDistance;
+    }
+
+    public void setMaxMyersDistance(long maxMyersDistance) {
+        this.maxMyersDistance = maxMyersDistance;
+        this.myersEngine = new MyersDiffEngine(linearSpaceEngine, maxMyersDistance);
+    }
+
+    /**
+     * Engine choice.
+     */
+    public static enum Choice {
+        /**
+         * Ranges are equal or one of them is empty after skipping of equal tokens, no engine is required.
+         */
+        TRIVIAL,
+
+        /**
+         * {@link org.trinkets.util.diff.LcsDiffEngine}
+         */
+        MATRIX,
+
+        /**
+         * {@link org.trinkets.util.diff.BitParallelDiffEngine}
+         */
+        BIT_PARALLEL,
+
+        /**
+         * {@link org.trinkets.util.diff.MyersDiffEngine}
+         */
+        MYERS,
+
+        /**
+         * {@link org.trinkets.util.diff.LinearSpaceDiffEngine}
+         */
+        LINEAR_SPACE
+    }
+
+    /**
+     * Selection of engine with reason and estimated size of problem.
+     */
+    public static final class Selection {
+        private final Choice choice;
+        private final long value;
+        private final long limit;
+        private final int prefix;
+        private final int suffix;
+        private final int xLength;
+        private final int yLength;
+        private final int alphabet;
+        private final long estimatedDistance;
+
+        Selection(Choice choice, long value, long limit, int prefix, int suffix, int xLength, int yLength,
+                  int alphabet, long estimatedDistance) {
+            this.choice = choice;
+            this.value = value;
+            this.limit = limit;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.xLength = xLength;
+            this.yLength = yLength;
+            this.alphabet = alphabet;
+            this.estimatedDistance = estimatedDistance;
+        }
+
+        public Choice getChoice() {
+            return choice;
+        }
+
+        /**
+         * Return reason of choice. Reason is built on demand, so selection is cheap if nobody reads it.
+         *
+         * @return Reason of choice
+         */
+        public String getReason() {
+            switch (choice) {
+                case MATRIX:
+                    return "matrix cells " + value + " <= " + limit;
+                case BIT_PARALLEL:
+                    return "alphabet " + alphabet + " is small and words " + value + " <= " + limit;
+                case MYERS:
+                    return "estimated distance " + value + " <= " + limit;
+                case LINEAR_SPACE:
+                    return "estimated distance " + value + " > " + limit;
+                default:
+                    return "one of ranges is empty";
+            }
+        }
+
+        /**
+         * @return Length of equal tokens at begin of ranges
+         */
+        public int getPrefix() {
+            return prefix;
+        }
+
+        /**
+         * @return Length of equal tokens at end of ranges
+         */
+        public int getSuffix() {
+            return suffix;
+        }
+
+        /**
+         * @return Length of X range without prefix and suffix
+         */
+        public int getXLength() {
+            return xLength;
+        }
+
+        /**
+         * @return Length of Y range without prefix and suffix
+         */
+        public int getYLength() {
+            return yLength;
+        }
+
+        /**
+         * @return Count of distinct tokens in Y range or 0 if it was not calculated
+         */
+        public int getAlphabet() {
+            return alphabet;
+        }
+
+        /**
+         * @return Estimated edit distance or -1 if it was not calculated
+         */
+        public long getEstimatedDistance() {
+            return estimatedDistance;
+        }
+
+        @Override
+        public String toString() {
+            return choice + " (" + getReason() + ") for " + xLength + "x" + yLength;
+        }
+    }
+
+    /**
+     * Listener of engine selections.
+     */
+    public static interface Listener {
+        void selected(Selection selection);
+    }
+}
@@ -0,0 +1,194 @@
+package org.trinkets.util.diff;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Metrics which aggregate reported values into histograms. Histograms have power of two buckets, so
+ * reporting is a few atomic increments without locks and allocations, and one instance can be shared
+ * by all comparisons. Use {@link #toString()} to scrape all histograms as text.
+ *
+ * @author Alexey Efimov
+ */
+public class AggregatingDiffMetrics implements DiffMetrics {
+    private static final DiffMetrics.Phase[] PHASES = DiffMetrics.Phase.values();
+
+    private final Histogram[] phases = new Histogram[PHASES.length];
+    private final Histogram tokens = new Histogram();
+    private final Histogram cells = new Histogram();
+    private final Histogram editDistance = new Histogram();
+    private final Histogram nodes = new Histogram();
+
+    public AggregatingDiffMetrics() {
+        for (int i = 0; i < phases.length; i++) {
+            phases[i] = new Histogram();
+        }
+    }
+
+    public void phase(Phase phase, long nanos) {
+        phases[phase.ordinal()].add(nanos);
+    }
+
+    public void tokens(int sourceCount, int targetCount) {
+        tokens.add((long) sourceCount + targetCount);
+    }
+
+    public void cells(long count) {
+        cells.add(count);
+    }
+
+    public void editDistance(long distance) {
+        editDistance.add(distance);
+    }
+
+    public void nodes(int count) {
+        nodes.add(count);
+    }
+
+    /**
+     * @param phase Phase
+     * @return Histogram of phase times in nanoseconds
+     */
+    public Histogram getPhase(Phase phase) {
+        return phases[phase.ordinal()];
+    }
+
+    /**
+     * @return Histogram of count of source and target tokens of comparison
+     */
+    public Histogram getTokens() {
+        return tokens;
+    }
+
+    /**
+     * @return Histogram of count of cells of LCS matrix
+     */
+    public Histogram getCells() {
+        return cells;
+    }
+
+    public Histogram getEditDistance() {
+        return editDistance;
+    }
+
+    public Histogram getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Reset all histograms.
+     */
+    public void reset() {
+        for (Histogram phase : phases) {
+            phase.reset();
+        }
+        tokens.reset();
+        cells.reset();
+        editDistance.reset();
+        nodes.reset();
+    }
+
+    /**
+     * Text of all histograms, one histogram per line, for example
+     * <code>diff.phase.lcs_fill.nanos count=10 sum=52000 max=9000 p50=4095 p99=16383</code>.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Phase phase : PHASES) {
+            append(builder, "diff.phase." + phase.name().toLowerCase() + ".nanos", getPhase(phase));
+        }
+        append(builder, "diff.tokens", tokens);
+        append(builder, "diff.cells", cells);
+        append(builder, "diff.edit_distance", editDistance);
+        append(builder, "diff.nodes", nodes);
+        return builder.toString();
+    }
+
+    private static void append(StringBuilder builder, String name, Histogram histogram) {
+        builder.append(name).append(' ').append(histogram).append('\n');
+    }
+
+    /**
+     * Histogram of non-negative values. Bucket <code>i</code> counts values of bit length <code>i</code>, so
+     * percentiles are upper bounds of buckets and they are at most twice greater than exact values.
+     */
+    public static final class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(Long.SIZE + 1);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram() {
+        }
+
+        void add(long value) {
+            value = Math.max(value, 0);
+            buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            sum.set(0);
+            max.set(0);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getSum() {
+            return sum.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param bucket Index of bucket from 0 to 64
+         * @return Count of values from <code>2<sup>bucket - 1</sup></code> to <code>2<sup>bucket</sup> - 1</code>
+         */
+        public long getBucket(int bucket) {
+            return buckets.get(bucket);
+        }
+
+        /**
+         * Upper bound of percentile.
+         *
+         * @param percent Percent from 0 to 100
+         * @return Upper bound of bucket which contains percentile, it is never greater than {@link #getMax()}
+         */
+        public long getPercentile(double percent) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            long rank = (long) Math.ceil(total * percent / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    long bound = i == Long.SIZE ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(bound, getMax());
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + getCount() + " sum=" + getSum() + " max=" + getMax() +
+                " p50=" + getPercentile(50) + " p99=" + getPercentile(99);
+        }
+    }
+}
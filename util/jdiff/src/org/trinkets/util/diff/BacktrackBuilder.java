@@ -0,0 +1,51 @@
+package org.trinkets.util.diff;
+
+/**
+ * Builder of {@link org.trinkets.util.diff.EditScript} for engines which read diff from end to begin.
+ * Instructions are collected in reverse order and appended to script from begin to end.
+ *
+ * @author Alexey Efimov
+ */
+final class BacktrackBuilder {
+    private static final DiffNode.Type[] TYPES = DiffNode.Type.values();
+
+    private int[] types = new int[16];
+    private int[] lengths = new int[16];
+    private int size = 0;
+
+    /**
+     * Add instruction before all collected instructions.
+     *
+     * @param type   Type of instruction
+     * @param length Length of instruction
+     */
+    public void prepend(DiffNode.Type type, int length) {
+        int t = type.ordinal();
+        if (size > 0 && types[size - 1] == t) {
+            lengths[size - 1] += length;
+        } else {
+            if (size == types.length) {
+                int[] newTypes = new int[size * 2];
+                int[] newLengths = new int[size * 2];
+                System.arraycopy(types, 0, newTypes, 0, size);
+                System.arraycopy(lengths, 0, newLengths, 0, size);
+                types = newTypes;
+                lengths = newLengths;
+            }
+            types[size] = t;
+            lengths[size] = length;
+            size++;
+        }
+    }
+
+    /**
+     * Append collected instructions to script.
+     *
+     * @param script Script
+     */
+    public void appendTo(EditScript script) {
+        for (int i = size - 1; i >= 0; i--) {
+            script.append(TYPES[types[i]], lengths[i]);
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package org.trinkets.util.diff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Delta of binary data. Source is indexed by rolling hashes of its blocks, then target is scanned with
+ * the same rolling hash, and each found block is extended forward and backward to the longest match.
+ * Matches are written as copy instructions, and bytes between them are written as insert instructions.
+ * Bytes are read from {@link java.nio.ByteBuffer}s in place, so memory mapped files are not copied,
+ * and the index uses two ints per block of source.
+ * <p/>
+ * Delta starts with length of target, followed by instructions. All numbers are unsigned variable length ints:
+ * <ul>
+ * <li><code>0, length, bytes</code> inserts bytes;</li>
+ * <li><code>1, offset, length</code> copies bytes of source. Offset is zigzag encoded distance from end of
+ * previous copy, so near copies have short offsets.</li>
+ * </ul>
+ *
+ * @author Alexey Efimov
+ */
+public final class BinaryDelta {
+    /**
+     * Size of indexed block, shorter matches are inserted
+     */
+    private static final int BLOCK_SIZE = 16;
+    private static final int PRIME = 0x01000193;
+    private static final int INSERT = 0;
+    private static final int COPY = 1;
+
+    private BinaryDelta() {
+    }
+
+    public static byte[] create(ByteBuffer source, ByteBuffer target) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            create(source, target, output);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Create delta of files. Files are mapped into memory.
+     *
+     * @param source Source file
+     * @param target Target file
+     * @param output Output of delta
+     * @throws IOException If files can't be read, or they are larger than 2Gb
+     */
+    public static void create(Path source, Path target, OutputStream output) throws IOException {
+        FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+        try {
+            FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.READ);
+            try {
+                create(map(sourceChannel), map(targetChannel), output);
+            } finally {
+                targetChannel.close();
+            }
+        } finally {
+            sourceChannel.close();
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File is too large: " + size + " bytes");
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * Create delta. Remaining bytes of buffers are compared, positions of buffers are not changed.
+     *
+     * @param source Source bytes
+     * @param target Target bytes
+     * @param output Output of delta
+     * @throws IOException If output can't be written
+     */
+    public static void create(ByteBuffer source, ByteBuffer target, OutputStream output) throws IOException {
+        InstructionWriter writer = new InstructionWriter(target, output);
+        int m = target.remaining();
+        writeInt(output, m);
+        BlockIndex index = new BlockIndex(source);
+        int insertStart = 0;
+        int i = 0;
+        int hash = m >= BLOCK_SIZE ? hash(target, 0) : 0;
+        while (i + BLOCK_SIZE <= m) {
+            int match = index.find(hash, target, i);
+            if (match >= 0) {
+                // Extend match backward into pending insert and forward
+                int sourceStart = match;
+                int targetStart = i;
+                while (sourceStart > 0 && targetStart > insertStart &&
+                    get(source, sourceStart - 1) == get(target, targetStart - 1)) {
+                    sourceStart--;
+                    targetStart--;
+                }
+                int targetEnd = i + BLOCK_SIZE;
+                int sourceEnd = match + BLOCK_SIZE;
+                while (targetEnd < m && sourceEnd < source.remaining() && get(source, sourceEnd) == get(target, targetEnd)) {
+                    targetEnd++;
+                    sourceEnd++;
+                }
+                writer.insert(insertStart, targetStart - insertStart);
+                writer.copy(sourceStart, targetEnd - targetStart);
+                i = targetEnd;
+                insertStart = targetEnd;
+                if (i + BLOCK_SIZE <= m) {
+                    hash = hash(target, i);
+                }
+            } else if (i + BLOCK_SIZE < m) {
+                hash = roll(hash, get(target, i), get(target, i + BLOCK_SIZE));
+                i++;
+            } else {
+                break;
+            }
+        }
+        writer.insert(insertStart, m - insertStart);
+    }
+
+    /**
+     * Apply delta to source.
+     *
+     * @param source Source bytes, position of buffer is not changed
+     * @param delta  Delta, it is read from position to limit
+     * @return Target bytes
+     * @throws IllegalArgumentException If delta is malformed or it doesn't fit source
+     */
+    public static ByteBuffer apply(ByteBuffer source, ByteBuffer delta) {
+        int length = readInt(delta);
+        // Inserts can't be longer than delta, and each copy instruction takes at least 3 bytes
+        long maxLength = delta.remaining() + (long) (delta.remaining() / 3) * source.remaining();
+        check(length >= 0 && length <= maxLength, "Length of target doesn't fit delta");
+        byte[] target = new byte[length];
+        int targetOffset = 0;
+        int copyEnd = 0;
+        while (delta.hasRemaining()) {
+            int instruction = delta.get();
+            int count;
+            if (instruction == INSERT) {
+                count = readInt(delta);
+                check(count >= 0 && count <= length - targetOffset && count <= delta.remaining(), "Insert is out of target");
+                delta.get(target, targetOffset, count);
+            } else if (instruction == COPY) {
+                int distance = readInt(delta);
+                int offset = copyEnd + ((distance >>> 1) ^ -(distance & 1));
+                count = readInt(delta);
+                check(count >= 0 && count <= length - targetOffset, "Copy is out of target");
+                check(offset >= 0 && count <= source.remaining() - offset, "Copy is out of source");
+                ByteBuffer range = source.duplicate();
+                range.position(source.position() + offset);
+                range.get(target, targetOffset, count);
+                copyEnd = offset + count;
+            } else {
+                throw new IllegalArgumentException("Unknown instruction " + instruction);
+            }
+            targetOffset += count;
+        }
+        check(targetOffset == length, "Delta is truncated");
+        return ByteBuffer.wrap(target);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalArgumentException(message);
+        }
+    }
+
+    private static byte get(ByteBuffer buffer, int offset) {
+        return buffer.get(buffer.position() + offset);
+    }
+
+    private static int hash(ByteBuffer buffer, int offset) {
+        int hash = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            hash = hash * PRIME + (get(buffer, offset + i) & 0xFF);
+        }
+        return hash;
+    }
+
+    private static int roll(int hash, byte out, byte in) {
+        return (hash - (out & 0xFF) * BlockIndex.OUT_FACTOR) * PRIME + (in & 0xFF);
+    }
+
+    private static void writeInt(OutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.write(value);
+    }
+
+    private static int readInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            check(buffer.hasRemaining(), "Delta is truncated");
+            int b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed number");
+    }
+
+    /**
+     * Writer of instructions.
+     */
+    private static final class InstructionWriter {
+        private final ByteBuffer target;
+        private final OutputStream output;
+        private final byte[] buffer = new byte[8192];
+        private int copyEnd = 0;
+
+        private InstructionWriter(ByteBuffer target, OutputStream output) {
+            this.target = target;
+            this.output = output;
+        }
+
+        private void insert(int offset, int length) throws IOException {
+            if (length > 0) {
+                output.write(INSERT);
+                writeInt(output, length);
+                if (target.hasArray()) {
+                    output.write(target.array(), target.arrayOffset() + target.position() + offset, length);
+                } else {
+                    ByteBuffer range = target.duplicate();
+                    range.position(target.position() + offset);
+                    while (length > 0) {
+                        int count = Math.min(length, buffer.length);
+                        range.get(buffer, 0, count);
+                        output.write(buffer, 0, count);
+                        length -= count;
+                    }
+                }
+            }
+        }
+
+        private void copy(int offset, int length) throws IOException {
+            int distance = offset - copyEnd;
+            output.write(COPY);
+            writeInt(output, (distance << 1) ^ (distance >> 31));
+            writeInt(output, length);
+            copyEnd = offset + length;
+        }
+    }
+
+    /**
+     * Index of source blocks by their hashes. Index is an open addressing hash table, and only
+     * the first block of each hash is kept.
+     */
+    private static final class BlockIndex {
+        /**
+         * Factor of byte which leaves rolling hash, it is <code>PRIME<sup>BLOCK_SIZE - 1</sup></code>
+         */
+        private static final int OUT_FACTOR;
+
+        static {
+            int factor = 1;
+            for (int i = 1; i < BLOCK_SIZE; i++) {
+                factor *= PRIME;
+            }
+            OUT_FACTOR = factor;
+        }
+
+        private final ByteBuffer source;
+        private final int[] hashes;
+        private final int[] offsets;
+        private final int mask;
+
+        private BlockIndex(ByteBuffer source) {
+            this.source = source;
+            int blocks = source.remaining() / BLOCK_SIZE;
+            int capacity = 16;
+            while (capacity < blocks * 2) {
+                capacity <<= 1;
+            }
+            hashes = new int[capacity];
+            offsets = new int[capacity];
+            mask = capacity - 1;
+            for (int i = 0; i < capacity; i++) {
+                offsets[i] = -1;
+            }
+            for (int block = 0; block < blocks; block++) {
+                int offset = block * BLOCK_SIZE;
+                int hash = hash(source, offset);
+                int slot = slot(hash);
+                while (offsets[slot] >= 0 && hashes[slot] != hash) {
+                    slot = (slot + 1) & mask;
+                }
+                if (offsets[slot] < 0) {
+                    hashes[slot] = hash;
+                    offsets[slot] = offset;
+                }
+            }
+        }
+
+        /**
+         * Find source block equal to target block.
+         *
+         * @param hash   Hash of target block
+         * @param target Target bytes
+         * @param offset Offset of target block
+         * @return Offset of source block or -1 if it is not found
+         */
+        private int find(int hash, ByteBuffer target, int offset) {
+            int slot = slot(hash);
+            while (offsets[slot] >= 0) {
+                if (hashes[slot] == hash) {
+                    int sourceOffset = offsets[slot];
+                    for (int i = 0; i < BLOCK_SIZE; i++) {
+                        if (get(source, sourceOffset + i) != get(target, offset + i)) {
+                            return -1;
+                        }
+                    }
+                    return sourceOffset;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private int slot(int hash) {
+            int h = hash * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.trinkets.util.diff;
+
+/**
+ * Diff engine based on bit-parallel LCS algorithm.
+ * See L. Allison, T.I. Dix, "A bit-string longest-common-subsequence algorithm" and
+ * H. Hyyro, "Bit-parallel LCS-length computation revisited".
+ * <p/>
+ * Each row of LCS matrix is encoded as bit vector of differences between neighbour cells, where bit is zero
+ * if LCS length is increased in this column. Row is computed from previous one by few operations on 64-bit words,
+ * and stored rows are enough to read the same diff as {@link org.trinkets.util.diff.LcsDiffEngine} does.
+ * <p/>
+ * Engine use O(N*M/64) time and memory, plus O(A*M/64) memory for match masks, where A is count of distinct
+ * tokens in Y. So it should be used for characters and other inputs with small alphabet.
+ *
+ * @author Alexey Efimov
+ */
+public class BitParallelDiffEngine implements DiffEngine {
+    private final DiffEngine fallback;
+
+    public BitParallelDiffEngine() {
+        this(new LinearSpaceDiffEngine());
+    }
+
+    /**
+     * Create engine.
+     *
+     * @param fallback Engine to use if bit vectors of all rows or match masks can not be allocated
+     */
+    public BitParallelDiffEngine(DiffEngine fallback) {
+        this.fallback = fallback;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "(" + fallback + ")";
+    }
+
+    public void diff(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength, EditScript script) {
+        int words = (yLength + 63) >>> 6;
+        if ((long) xLength * words > Integer.MAX_VALUE) {
+            fallback.diff(x, xOffset, xLength, y, yOffset, yLength, script);
+            return;
+        }
+        IdIndex alphabet = new IdIndex(y, yOffset, yLength);
+        if ((long) alphabet.size() * words > Integer.MAX_VALUE) {
+            fallback.diff(x, xOffset, xLength, y, yOffset, yLength, script);
+            return;
+        }
+        DiffBudget budget = script.getBudget();
+        if (budget != null && !budget.spend((long) xLength * words)) {
+            // Budget is exhausted
+            script.append(DiffNode.Type.REMOVED, xLength);
+            script.append(DiffNode.Type.ADDED, yLength);
+            script.setTruncated(true);
+            return;
+        }
+        boolean measured = script.getMetrics() != null;
+        long start = measured ? System.nanoTime() : 0;
+        long[] masks = masks(alphabet, y, yOffset, yLength, words);
+        long[] rows = rows(alphabet, masks, x, xOffset, xLength, words);
+        if (measured) {
+            script.addPhaseTime(DiffMetrics.Phase.LCS_FILL, System.nanoTime() - start);
+            script.addCells((long) xLength * yLength);
+            start = System.nanoTime();
+        }
+        backtrack(rows, x, xOffset, xLength, y, yOffset, yLength, words, script);
+        if (measured) {
+            script.addPhaseTime(DiffMetrics.Phase.BACKTRACK, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Build match masks. Bit j of mask for token is set if y[j] is equal to token.
+     *
+     * @param alphabet Alphabet of Y
+     * @param y        Y ids
+     * @param yOffset  Start of range in Y
+     * @param yLength  Length of range in Y
+     * @param words    Count of words in bit vector
+     * @return Masks of tokens, mask of token with index a is stored at a * words.
+     */
+    private static long[] masks(IdIndex alphabet, int[] y, int yOffset, int yLength, int words) {
+        long[] masks = new long[alphabet.size() * words];
+        for (int j = 0; j < yLength; j++) {
+            masks[alphabet.indexOf(y[yOffset + j]) * words + (j >>> 6)] |= 1L << (j & 63);
+        }
+        return masks;
+    }
+
+    /**
+     * Compute bit vectors of all rows of LCS matrix.
+     *
+     * @param alphabet Alphabet of Y
+     * @param masks    Match masks
+     * @param x        X ids
+     * @param xOffset  Start of range in X
+     * @param xLength  Length of range in X
+     * @param words    Count of words in bit vector
+     * @return Bit vectors, row i (1..n) is stored at (i - 1) * words, row 0 is all ones.
+     */
+    private static long[] rows(IdIndex alphabet, long[] masks, int[] x, int xOffset, int xLength, int words) {
+        long[] rows = new long[xLength * words];
+        long[] v = new long[words];
+        for (int w = 0; w < words; w++) {
+            v[w] = -1L;
+        }
+        for (int i = 0; i < xLength; i++) {
+            int index = alphabet.indexOf(x[xOffset + i]);
+            if (index >= 0) {
+                int base = index * words;
+                long carry = 0;
+                for (int w = 0; w < words; w++) {
+                    long a = v[w];
+                    long mask = masks[base + w];
+                    long b = a & mask;
+                    long sum = a + b + carry;
+                    carry = ((a & b) | ((a | b) & ~sum)) >>> 63;
+                    v[w] = sum | (a & ~mask);
+                }
+            }
+            System.arraycopy(v, 0, rows, i * words, words);
+        }
+        return rows;
+    }
+
+    /**
+     * Read diff from bit vectors of rows. Bit j - 1 of row i is one if L[i][j - 1] is equal to L[i][j].
+     *
+     * @param script Script to append diff to
+     */
+    private static void backtrack(long[] rows, int[] x, int xOffset, int xLength,
+                                  int[] y, int yOffset, int yLength, int words, EditScript script) {
+        BacktrackBuilder backtrack = new BacktrackBuilder();
+        // From back to begin
+        int i = xLength, j = yLength;
+        while (i > 0 || j > 0) {
+            if (i > 0 && j > 0 && x[xOffset + i - 1] == y[yOffset + j - 1]) {
+                backtrack.prepend(DiffNode.Type.UNCHANGED, 1);
+                i--;
+                j--;
+            } else if (j > 0 && (i == 0 || (rows[(i - 1) * words + ((j - 1) >>> 6)] & (1L << ((j - 1) & 63))) != 0)) {
+                backtrack.prepend(DiffNode.Type.ADDED, 1);
+                j--;
+            } else {
+                backtrack.prepend(DiffNode.Type.REMOVED, 1);
+                i--;
+            }
+        }
+        backtrack.appendTo(script);
+    }
+}
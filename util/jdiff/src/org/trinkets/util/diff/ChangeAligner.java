@@ -0,0 +1,25 @@
+package org.trinkets.util.diff;
+
+/**
+ * Aligner of changed ranges with different length. It is used by
+ * {@link org.trinkets.util.diff.DiffAlgorithm#alignChanged(DiffNode, Object[], Object[], ChangeAligner)}
+ * to find the best position of shorter range inside longer one.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.LinesChangeAligner
+ */
+public interface ChangeAligner<T> {
+    /**
+     * Align ranges. One of ranges is shorter than another one.
+     *
+     * @param x       X list
+     * @param xOffset Start of range in X list
+     * @param xLength Length of range in X list
+     * @param y       Y list
+     * @param yOffset Start of range in Y list
+     * @param yLength Length of range in Y list
+     * @return Offset of shorter range in longer range, from 0 to difference of lengths,
+     *         or -1 if ranges have nothing in common.
+     */
+    int align(T[] x, int xOffset, int xLength, T[] y, int yOffset, int yLength);
+}
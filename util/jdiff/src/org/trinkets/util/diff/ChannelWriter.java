@@ -0,0 +1,144 @@
+package org.trinkets.util.diff;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Writer to {@link java.nio.channels.WritableByteChannel}. Characters are encoded by one
+ * {@link java.nio.charset.CharsetEncoder} through fixed char and byte buffers, so writing of markup
+ * doesn't create strings or byte arrays.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.StringBuilderDiffMarker#setOutput(Appendable, Appendable)
+ */
+public class ChannelWriter extends Writer {
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final WritableByteChannel channel;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+
+    public ChannelWriter(WritableByteChannel channel, Charset charset) {
+        this(channel,
+            charset.newEncoder().
+                onMalformedInput(CodingErrorAction.REPLACE).
+                onUnmappableCharacter(CodingErrorAction.REPLACE),
+            DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create writer.
+     *
+     * @param channel    Channel
+     * @param encoder    Encoder, it is reset and can be reused after writer is closed
+     * @param bufferSize Size of char buffer
+     */
+    public ChannelWriter(WritableByteChannel channel, CharsetEncoder encoder, int bufferSize) {
+        this.channel = channel;
+        this.encoder = encoder;
+        this.encoder.reset();
+        this.chars = CharBuffer.allocate(bufferSize);
+        this.bytes = ByteBuffer.allocate(Math.max(16, (int) Math.ceil(bufferSize * encoder.maxBytesPerChar())));
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (!chars.hasRemaining()) {
+            encode(false);
+        }
+        chars.put((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            int count = Math.min(len, chars.remaining());
+            chars.put(cbuf, off, count);
+            off += count;
+            len -= count;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        append(str, off, off + len);
+    }
+
+    @Override
+    public Writer append(CharSequence csq) throws IOException {
+        CharSequence sequence = csq != null ? csq : "null";
+        return append(sequence, 0, sequence.length());
+    }
+
+    @Override
+    public Writer append(CharSequence csq, int start, int end) throws IOException {
+        CharSequence sequence = csq != null ? csq : "null";
+        for (int i = start; i < end; i++) {
+            if (!chars.hasRemaining()) {
+                encode(false);
+            }
+            chars.put(sequence.charAt(i));
+        }
+        return this;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        encode(false);
+        writeBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            encode(true);
+            while (encoder.flush(bytes).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+            encoder.reset();
+            channel.close();
+        }
+    }
+
+    /**
+     * Encode buffered characters. Characters which can't be encoded yet, such as high surrogate
+     * at the end of buffer, are kept in buffer.
+     *
+     * @param endOfInput Is there no more characters
+     * @throws IOException If channel can't be written
+     */
+    private void encode(boolean endOfInput) throws IOException {
+        chars.flip();
+        while (true) {
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isOverflow()) {
+                writeBytes();
+            } else if (result.isUnderflow()) {
+                break;
+            } else {
+                result.throwException();
+            }
+        }
+        chars.compact();
+    }
+
+    private void writeBytes() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
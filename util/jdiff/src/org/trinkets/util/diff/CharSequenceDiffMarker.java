@@ -0,0 +1,15 @@
+package org.trinkets.util.diff;
+
+/**
+ * Characters diff marker. Marker is used to markup diff results of characters
+ * without boxing them into {@link Character} arrays.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.DiffMarkup#compareChars(CharSequence, CharSequence, DiffMarker)
+ */
+public interface CharSequenceDiffMarker {
+    void apply(DiffNode sourceNode, CharSequence source, int sourceOffset, int sourceLength,
+               DiffNode targetNode, CharSequence target, int targetOffset, int targetLength);
+
+    void reset();
+}
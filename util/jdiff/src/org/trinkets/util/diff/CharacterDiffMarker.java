@@ -14,4 +14,9 @@ public class CharacterDiffMarker extends StringBuilderDiffMarker<Character> {
     public CharSequence toCharSequence(Character[] array, int offset, int length) {
         return new String(Strings.toArray(array, offset, length));
     }
+
+    @Override
+    public int length(Character[] array, int offset, int length) {
+        return length;
+    }
 }
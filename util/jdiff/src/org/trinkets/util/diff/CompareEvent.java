@@ -0,0 +1,62 @@
+package org.trinkets.util.diff;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of comparison by {@link org.trinkets.util.diff.DiffMarkup}, including markup.
+ *
+ * @author Alexey Efimov
+ */
+@Name("org.trinkets.util.diff.Compare")
+@Label("Diff Compare")
+@Category("jdiff")
+@Description("Comparison of texts, files or arrays and markup of diff")
+final class CompareEvent extends jdk.jfr.Event {
+    @Label("Operation")
+    @Description("Kind of compared tokens: lines, files, words, chars or array")
+    String operation;
+
+    @Label("Engine")
+    String engine;
+
+    @Label("Source Length")
+    @Description("Count of source tokens")
+    int sourceLength;
+
+    @Label("Target Length")
+    @Description("Count of target tokens")
+    int targetLength;
+
+    @Label("Node Count")
+    int nodeCount;
+
+    @Label("Cached")
+    boolean cached;
+
+    /**
+     * End event and commit it if recording is enabled. Fields are computed only if event is committed.
+     *
+     * @param operation    Kind of tokens
+     * @param engine       Engine or <code>null</code> if default engine is used
+     * @param sourceLength Count of source tokens
+     * @param targetLength Count of target tokens
+     * @param node         First node of diff
+     * @param cached       <code>true</code> if diff is taken from cache
+     */
+    void commit(String operation, DiffEngine engine, int sourceLength, int targetLength, DiffNode node,
+                boolean cached) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation;
+            this.engine = (engine != null ? engine : DiffAlgorithm.DEFAULT_ENGINE).getClass().getSimpleName();
+            this.sourceLength = sourceLength;
+            this.targetLength = targetLength;
+            this.nodeCount = DiffAlgorithm.count(node);
+            this.cached = cached;
+            commit();
+        }
+    }
+}
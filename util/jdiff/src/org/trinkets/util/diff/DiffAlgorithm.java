@@ -1,65 +1,84 @@
 package org.trinkets.util.diff;
 
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Diff algorithm implementation.
  * See http://en.wikipedia.org/wiki/Longest_common_subsequence_problem.
  * <p/>
- * The result of this class is sequence of {@link DiffNode}s.
+ * The result of this class is {@link org.trinkets.util.diff.EditScript} or sequence of {@link DiffNode}s built
+ * from it. Before comparison tokens are mapped to int ids, so algorithm of comparison works with int arrays. Algorithm of comparison
+ * can be changed by {@link org.trinkets.util.diff.DiffEngine}, by default
+ * {@link org.trinkets.util.diff.AdaptiveDiffEngine} is used.
  *
  * @author Alexey Efimov
  */
 public final class DiffAlgorithm {
+    static final DiffEngine DEFAULT_ENGINE = new AdaptiveDiffEngine();
+
     private DiffAlgorithm() {
     }
 
     /**
-     * Read diff from LCS matrix to list of {@link DiffNode}s.
+     * Read diff from LCS matrix to script.
      * See http://en.wikipedia.org/wiki/Longest_common_subsequence_problem#Print_the_diff for more
      * details.
      *
-     * @param x    X list
-     * @param y    Y list
-     * @param diff Start {@link org.trinkets.util.diff.DiffNode}.
-     * @return Diff in {@link org.trinkets.util.diff.DiffNode}s.
+     * @param x      X list
+     * @param y      Y list
+     * @param script Script to append diff to
      */
-    private static <T> DiffNode backtrack(ArrayRange<T> x, ArrayRange<T> y, DiffNode diff) {
-        DiffNode backtrack = backtrack(x, y);
-        // Now append into current node
-        if (diff != null && backtrack != null) {
-            diff.getLast().insertAfter(backtrack.getFirst());
-        }
-        return diff != null ? diff.getFirst() : (backtrack != null ? backtrack.getFirst() : null);
+    static void backtrack(IntArrayRange x, IntArrayRange y, EditScript script) {
+        backtrack(x, y, script, null);
     }
 
     /**
-     * Read diff from LCS matrix to list of {@link DiffNode}s.
-     * See http://en.wikipedia.org/wiki/Longest_common_subsequence_problem#Print_the_diff for more
-     * details.
+     * Read diff from LCS matrix to script, matrix is filled in parallel.
      *
-     * @param x X list
-     * @param y Y list
-     * @return Backtrack in {@link org.trinkets.util.diff.DiffNode}.
+     * @param x      X list
+     * @param y      Y list
+     * @param script Script to append diff to
+     * @param pool   Pool to fill matrix, if <code>null</code> then matrix is filled sequentially
      */
-    private static <T> DiffNode backtrack(ArrayRange<T> x, ArrayRange<T> y) {
-        DiffNode backtrack = null;
-        int[][] lcs = lcs(x, y);
+    static void backtrack(IntArrayRange x, IntArrayRange y, EditScript script, ForkJoinPool pool) {
+        boolean measured = script.getMetrics() != null;
+        long start = measured ? System.nanoTime() : 0;
+        LcsMatrix lcs = LcsMatrix.fill(x, y, pool, script.getBudget());
+        if (measured) {
+            script.addPhaseTime(DiffMetrics.Phase.LCS_FILL, System.nanoTime() - start);
+            if (lcs != null) {
+                script.addCells((long) x.length() * y.length());
+            }
+            start = System.nanoTime();
+        }
+        if (lcs == null) {
+            // Budget is exhausted
+            script.append(DiffNode.Type.REMOVED, x.length());
+            script.append(DiffNode.Type.ADDED, y.length());
+            script.setTruncated(true);
+            return;
+        }
+        BacktrackBuilder backtrack = new BacktrackBuilder();
         // From back to begin
         int i = x.length(), j = y.length();
 
         while (i > 0 || j > 0) {
-            if (i > 0 && j > 0 && equals(x.get(i - 1), y.get(j - 1))) {
-                backtrack = createNode(backtrack, DiffNode.Type.UNCHANGED, 1);
+            if (i > 0 && j > 0 && x.get(i - 1) == y.get(j - 1)) {
+                backtrack.prepend(DiffNode.Type.UNCHANGED, 1);
                 i--;
                 j--;
-            } else if (j > 0 && (i == 0 || lcs[i][j - 1] >= lcs[i - 1][j])) {
-                backtrack = createNode(backtrack, DiffNode.Type.ADDED, 1);
+            } else if (j > 0 && (i == 0 || lcs.get(i, j - 1) >= lcs.get(i - 1, j))) {
+                backtrack.prepend(DiffNode.Type.ADDED, 1);
                 j--;
-            } else if (i > 0 && (j == 0 || lcs[i][j - 1] < lcs[i - 1][j])) {
-                backtrack = createNode(backtrack, DiffNode.Type.REMOVED, 1);
+            } else if (i > 0 && (j == 0 || lcs.get(i, j - 1) < lcs.get(i - 1, j))) {
+                backtrack.prepend(DiffNode.Type.REMOVED, 1);
                 i--;
             }
         }
-        return backtrack != null ? backtrack.reverse() : null;
+        backtrack.appendTo(script);
+        if (measured) {
+            script.addPhaseTime(DiffMetrics.Phase.BACKTRACK, System.nanoTime() - start);
+        }
     }
 
     /**
@@ -71,47 +90,24 @@ public final class DiffAlgorithm {
      * @param y Y list
      * @return LCS matrix
      */
-    static <T> int[][] lcs(ArrayRange<T> x, ArrayRange<T> y) {
-        // Create matrix
-        int[][] lcs = new int[x.length() + 1][y.length() + 1];
-        // Fill matrix
-        for (int i = 1; i < lcs.length; i++) {
-            for (int j = 1; j < lcs[i].length; j++) {
-                if (equals(x.get(i - 1), y.get(j - 1))) {
-                    lcs[i][j] = lcs[i - 1][j - 1] + 1;
-                } else {
-                    lcs[i][j] = Math.max(lcs[i][j - 1], lcs[i - 1][j]);
-                }
-            }
-        }
-        return lcs;
+    static LcsMatrix lcs(IntArrayRange x, IntArrayRange y) {
+        return LcsMatrix.fill(x, y, null);
     }
 
-    private static <T> boolean equals(T t1, T t2) {
+    static <T> boolean equals(T t1, T t2) {
         return t1 == t2 || t1 != null && t1.equals(t2);
     }
 
     /**
-     * Add single {@link DiffNode} into list. If
-     * previous {@link DiffNode} was appended with the same
-     * {@link org.trinkets.util.diff.DiffNode.Type} as this one, then token was appended into previous list.
+     * Compare arrays of values and return diff.
      *
-     * @param current Current node
-     * @param type    Diff type
-     * @param length  Marker length
-     * @return Next node
+     * @param x        X list
+     * @param y        Y list
+     * @param optimize Turn on/off optimization (removing equals elements from begin and end of arrays).
+     * @return list of {@link DiffNode}
      */
-    private static DiffNode createNode(DiffNode current, DiffNode.Type type, int length) {
-        // Check previous type
-        if (current != null && type.equals(current.getType())) {
-            // Append to previous with same type
-            current.setLength(current.getLength() + 1);
-            return current;
-        } else {
-            DiffNode created = new DiffNode(type, length);
-            created.setPrevious(current);
-            return created;
-        }
+    public static <T> DiffNode compare(T[] x, T[] y, boolean optimize) {
+        return compare(x, y, optimize, DEFAULT_ENGINE);
     }
 
     /**
@@ -120,9 +116,67 @@ public final class DiffAlgorithm {
      * @param x        X list
      * @param y        Y list
      * @param optimize Turn on/off optimization (removing equals elements from begin and end of arrays).
+     * @param engine   Diff engine to compare remaining ranges
      * @return list of {@link DiffNode}
      */
-    public static <T> DiffNode compare(T[] x, T[] y, boolean optimize) {
+    public static <T> DiffNode compare(T[] x, T[] y, boolean optimize, DiffEngine engine) {
+        return script(x, y, optimize, engine).toDiffNode();
+    }
+
+    /**
+     * Compare arrays of values and return edit script.
+     *
+     * @param x        X list
+     * @param y        Y list
+     * @param optimize Turn on/off optimization (removing equals elements from begin and end of arrays).
+     * @return Edit script
+     */
+    public static <T> EditScript script(T[] x, T[] y, boolean optimize) {
+        return script(x, y, optimize, DEFAULT_ENGINE);
+    }
+
+    /**
+     * Compare arrays of values and return edit script.
+     *
+     * @param x        X list
+     * @param y        Y list
+     * @param optimize Turn on/off optimization (removing equals elements from begin and end of arrays).
+     * @param engine   Diff engine to compare remaining ranges
+     * @return Edit script
+     */
+    public static <T> EditScript script(T[] x, T[] y, boolean optimize, DiffEngine engine) {
+        return script(x, y, optimize, engine, null);
+    }
+
+    /**
+     * Compare arrays of values within budget and return edit script.
+     *
+     * @param x        X list
+     * @param y        Y list
+     * @param optimize Turn on/off optimization (removing equals elements from begin and end of arrays).
+     * @param engine   Diff engine to compare remaining ranges
+     * @param budget   Budget of engine, if <code>null</code> then budget is not limited
+     * @return Edit script, it is {@link org.trinkets.util.diff.EditScript#isTruncated() truncated}
+     *         if budget is exhausted
+     */
+    public static <T> EditScript script(T[] x, T[] y, boolean optimize, DiffEngine engine, DiffBudget budget) {
+        return script(x, y, optimize, engine, budget, null);
+    }
+
+    /**
+     * Compare arrays of values within budget, report metrics and return edit script.
+     *
+     * @param x        X list
+     * @param y        Y list
+     * @param optimize Turn on/off optimization (removing equals elements from begin and end of arrays).
+     * @param engine   Diff engine to compare remaining ranges
+     * @param budget   Budget of engine, if <code>null</code> then budget is not limited
+     * @param metrics  Metrics of comparison, if <code>null</code> then metrics are not reported
+     * @return Edit script
+     */
+    public static <T> EditScript script(T[] x, T[] y, boolean optimize, DiffEngine engine, DiffBudget budget,
+                                        DiffMetrics metrics) {
+        long start = metrics != null ? System.nanoTime() : 0;
         int startX = 0;
         int startY = 0;
         if (optimize) {
@@ -144,94 +198,273 @@ public final class DiffAlgorithm {
         }
         // Now we have sequence 0..startX..endX..x.length() and
         //                      0..startY..endY..y.length()
-        ArrayRange<T> xRange = new ArrayRange<T>(x, startX, endX - startX);
-        ArrayRange<T> yRange = new ArrayRange<T>(y, startY, endY - startY);
-        // To build C matrix we must use only x[startX..endX] comparing to y[startY..endY]
-        DiffNode diff = null;
-        if (startX > 0) {
-            // Begin not changed
-            diff = createNode(diff, DiffNode.Type.UNCHANGED, startX);
+        // Map tokens of x[startX..endX] and y[startY..endY] to ids, so engine compare ints instead of objects
+        TokenInterner<T> interner = new TokenInterner<T>(endX - startX + endY - startY);
+        IntArrayRange xRange = new IntArrayRange(interner.intern(x, startX, endX - startX));
+        IntArrayRange yRange = new IntArrayRange(interner.intern(y, startY, endY - startY));
+        if (metrics != null) {
+            metrics.phase(DiffMetrics.Phase.INTERN, System.nanoTime() - start);
+            metrics.tokens(x.length, y.length);
         }
+        return script(xRange, yRange, startX, x.length - endX, engine, budget, metrics);
+    }
 
-        diff = backtrack(xRange, yRange, diff);
+    /**
+     * Compare characters and return diff. Characters are compared without boxing.
+     *
+     * @param x        X characters
+     * @param y        Y characters
+     * @param optimize Turn on/off optimization (removing equals characters from begin and end of sequences).
+     * @return list of {@link DiffNode}
+     */
+    public static DiffNode compare(CharSequence x, CharSequence y, boolean optimize) {
+        return compare(x, y, optimize, DEFAULT_ENGINE);
+    }
 
-        if (endX < x.length) {
-            // Ending not changed
-            diff = createNode(diff != null ? diff.getLast() : null, DiffNode.Type.UNCHANGED, x.length - endX);
+    /**
+     * Compare characters and return diff. Characters are compared without boxing.
+     *
+     * @param x        X characters
+     * @param y        Y characters
+     * @param optimize Turn on/off optimization (removing equals characters from begin and end of sequences).
+     * @param engine   Diff engine to compare remaining ranges
+     * @return list of {@link DiffNode}
+     */
+    public static DiffNode compare(CharSequence x, CharSequence y, boolean optimize, DiffEngine engine) {
+        return script(x, y, optimize, engine).toDiffNode();
+    }
+
+    /**
+     * Compare characters and return edit script. Characters are compared without boxing.
+     *
+     * @param x        X characters
+     * @param y        Y characters
+     * @param optimize Turn on/off optimization (removing equals characters from begin and end of sequences).
+     * @return Edit script
+     */
+    public static EditScript script(CharSequence x, CharSequence y, boolean optimize) {
+        return script(x, y, optimize, DEFAULT_ENGINE);
+    }
+
+    /**
+     * Compare characters and return edit script. Characters are compared without boxing.
+     *
+     * @param x        X characters
+     * @param y        Y characters
+     * @param optimize Turn on/off optimization (removing equals characters from begin and end of sequences).
+     * @param engine   Diff engine to compare remaining ranges
+     * @return Edit script
+     */
+    public static EditScript script(CharSequence x, CharSequence y, boolean optimize, DiffEngine engine) {
+        return script(x, y, optimize, engine, null);
+    }
+
+    /**
+     * Compare characters within budget and return edit script.
+     *
+     * @param x        X characters
+     * @param y        Y characters
+     * @param optimize Turn on/off optimization (removing equals characters from begin and end of sequences).
+     * @param engine   Diff engine to compare remaining ranges
+     * @param budget   Budget of engine, if <code>null</code> then budget is not limited
+     * @return Edit script, it is {@link org.trinkets.util.diff.EditScript#isTruncated() truncated}
+     *         if budget is exhausted
+     */
+    public static EditScript script(CharSequence x, CharSequence y, boolean optimize, DiffEngine engine,
+                                    DiffBudget budget) {
+        return script(x, y, optimize, engine, budget, null);
+    }
+
+    /**
+     * Compare characters within budget, report metrics and return edit script.
+     *
+     * @param x        X characters
+     * @param y        Y characters
+     * @param optimize Turn on/off optimization (removing equals characters from begin and end of sequences).
+     * @param engine   Diff engine to compare remaining ranges
+     * @param budget   Budget of engine, if <code>null</code> then budget is not limited
+     * @param metrics  Metrics of comparison, if <code>null</code> then metrics are not reported
+     * @return Edit script
+     */
+    public static EditScript script(CharSequence x, CharSequence y, boolean optimize, DiffEngine engine,
+                                    DiffBudget budget, DiffMetrics metrics) {
+        if (metrics != null) {
+            metrics.tokens(x.length(), y.length());
         }
+        int startX = 0;
+        int startY = 0;
+        int endX = x.length();
+        int endY = y.length();
+        if (optimize) {
+            while (startX < endX && startY < endY && x.charAt(startX) == y.charAt(startY)) {
+                startX++;
+                startY++;
+            }
+            while (endX > startX && endY > startY && x.charAt(endX - 1) == y.charAt(endY - 1)) {
+                endX--;
+                endY--;
+            }
+        }
+        // Character itself is id
+        IntArrayRange xRange = new IntArrayRange(Strings.toIds(x, startX, endX - startX));
+        IntArrayRange yRange = new IntArrayRange(Strings.toIds(y, startY, endY - startY));
+        return script(xRange, yRange, startX, x.length() - endX, engine, budget, metrics);
+    }
 
-        // Split nodes
-        diff = split(diff != null ? diff.getFirst() : null);
+    /**
+     * Compare ids of tokens and return edit script.
+     *
+     * @param x        X ids
+     * @param y        Y ids
+     * @param optimize Turn on/off optimization (removing equals ids from begin and end of arrays).
+     * @return Edit script
+     */
+    static EditScript script(int[] x, int[] y, boolean optimize) {
+        return script(x, y, optimize, DEFAULT_ENGINE);
+    }
 
-        return diff != null ? diff.getFirst() : null;
+    /**
+     * Compare ids of tokens and return edit script.
+     *
+     * @param x        X ids
+     * @param y        Y ids
+     * @param optimize Turn on/off optimization (removing equals ids from begin and end of arrays).
+     * @param engine   Diff engine to compare remaining ranges
+     * @return Edit script
+     */
+    static EditScript script(int[] x, int[] y, boolean optimize, DiffEngine engine) {
+        return script(x, y, optimize, engine, null);
     }
 
-    private static DiffNode split(DiffNode node) {
-        DiffNode previous = node != null ? node.getFirst() : null;
-        while (node != null) {
-            if (DiffNode.Type.UNCHANGED.equals(node.getType())) {
-                // Simple split by clone
-                DiffNode opposite = new DiffNode(DiffNode.Type.UNCHANGED, node.getLength());
-                node.setOpposite(opposite);
-            } else if (DiffNode.Type.ADDED.equals(node.getType())) {
-                DiffNode next = node.getNext();
-                if (next != null && DiffNode.Type.REMOVED.equals(next.getType())) {
-                    previous = node.remove();
-                    next.setOpposite(node);
-                    node = previous;
-                } else {
-                    DiffNode virtual = new DiffNode(DiffNode.Type.VIRTUAL, 0);
-                    node.insertBefore(virtual);
-                    previous = node.remove();
-                    virtual.setOpposite(node);
-                    node = previous;
-                }
-            } else if (DiffNode.Type.REMOVED.equals(node.getType())) {
-                DiffNode next = node.getNext();
-                if (next != null && DiffNode.Type.ADDED.equals(next.getType())) {
-                    previous = next.remove();
-                    node.setOpposite(next);
-                } else {
-                    DiffNode virtual = new DiffNode(DiffNode.Type.VIRTUAL, 0);
-                    node.setOpposite(virtual);
-                }
+    /**
+     * Compare ids of tokens within budget and return edit script.
+     *
+     * @param x        X ids
+     * @param y        Y ids
+     * @param optimize Turn on/off optimization (removing equals ids from begin and end of arrays).
+     * @param engine   Diff engine to compare remaining ranges
+     * @param budget   Budget of engine, if <code>null</code> then budget is not limited
+     * @return Edit script
+     */
+    static EditScript script(int[] x, int[] y, boolean optimize, DiffEngine engine, DiffBudget budget) {
+        return script(x, y, optimize, engine, budget, null);
+    }
+
+    /**
+     * Compare ids of tokens within budget, report metrics and return edit script.
+     *
+     * @param x        X ids
+     * @param y        Y ids
+     * @param optimize Turn on/off optimization (removing equals ids from begin and end of arrays).
+     * @param engine   Diff engine to compare remaining ranges
+     * @param budget   Budget of engine, if <code>null</code> then budget is not limited
+     * @param metrics  Metrics of comparison, if <code>null</code> then metrics are not reported
+     * @return Edit script
+     */
+    static EditScript script(int[] x, int[] y, boolean optimize, DiffEngine engine, DiffBudget budget,
+                             DiffMetrics metrics) {
+        if (metrics != null) {
+            metrics.tokens(x.length, y.length);
+        }
+        int startX = 0;
+        int startY = 0;
+        int endX = x.length;
+        int endY = y.length;
+        if (optimize) {
+            while (startX < endX && startY < endY && x[startX] == y[startY]) {
+                startX++;
+                startY++;
+            }
+            while (endX > startX && endY > startY && x[endX - 1] == y[endY - 1]) {
+                endX--;
+                endY--;
             }
-            node = node.getNext();
         }
-        return previous != null ? previous.getFirst() : null;
+        return script(
+            new IntArrayRange(x, startX, endX - startX), new IntArrayRange(y, startY, endY - startY),
+            startX, x.length - endX, engine, budget, metrics);
+    }
+
+    /**
+     * Compare ranges of ids and return edit script.
+     *
+     * @param x       X ids
+     * @param y       Y ids
+     * @param prefix  Length of unchanged range before ids
+     * @param suffix  Length of unchanged range after ids
+     * @param engine  Diff engine
+     * @param budget  Budget of engine or <code>null</code>
+     * @param metrics Metrics or <code>null</code>
+     * @return Edit script
+     */
+    private static EditScript script(IntArrayRange x, IntArrayRange y, int prefix, int suffix, DiffEngine engine,
+                                     DiffBudget budget, DiffMetrics metrics) {
+        long start = metrics != null ? System.nanoTime() : 0;
+        EditScript script = new EditScript();
+        script.setBudget(budget);
+        script.setMetrics(metrics);
+        // Begin not changed
+        script.append(DiffNode.Type.UNCHANGED, prefix);
+        engine.diff(x.array, x.base, x.length, y.array, y.base, y.length, script);
+        // Ending not changed
+        script.append(DiffNode.Type.UNCHANGED, suffix);
+        if (metrics != null) {
+            metrics.phase(DiffMetrics.Phase.DIFF, System.nanoTime() - start);
+            script.reportMetrics();
+            metrics.editDistance(getEditDistance(script));
+        }
+        return script;
+    }
+
+    private static long getEditDistance(EditScript script) {
+        long distance = 0;
+        for (int i = 0; i < script.size(); i++) {
+            if (!DiffNode.Type.UNCHANGED.equals(script.getType(i))) {
+                distance += script.getLength(i);
+            }
+        }
+        return distance;
     }
 
     public static <T> DiffNode splitChanged(DiffNode node, T[] x, T[] y, IncrementalDiffHandler<T> incrementalDiffHandler) {
+        return alignChanged(node, x, y,
+            incrementalDiffHandler != null ? new IncrementalChangeAligner<T>(incrementalDiffHandler) : null);
+    }
+
+    /**
+     * Split opposite nodes with different length, so shorter range is paired with the most similar part
+     * of longer range and remaining parts are paired with {@link org.trinkets.util.diff.DiffNode.Type#VIRTUAL} nodes.
+     *
+     * @param node    First node
+     * @param x       X list, it can be <code>null</code> if aligner doesn't use it
+     * @param y       Y list, it can be <code>null</code> if aligner doesn't use it
+     * @param aligner Aligner of changed ranges
+     * @return First node
+     */
+    public static <T> DiffNode alignChanged(DiffNode node, T[] x, T[] y, ChangeAligner<T> aligner) {
+        SplitChangedEvent event = new SplitChangedEvent();
+        event.begin();
+        int alignedCount = 0;
         DiffNode previous = node != null ? node.getFirst() : null;
+        // Offsets of current node and its opposite
+        int sourceOffset = 0;
+        int targetOffset = 0;
         while (node != null) {
             // If added items not equals to count of removed items
-            if (incrementalDiffHandler != null &&
+            if (aligner != null &&
                 node.hasOpposite() &&
                 DiffNode.Type.REMOVED.equals(node.getType()) &&
                 DiffNode.Type.ADDED.equals(node.getOpposite().getType()) &&
                 node.getLength() != node.getOpposite().getLength()) {
                 int minLength = Math.min(node.getLength(), node.getOpposite().getLength());
                 if (minLength > 0) {
-                    // Try to find best diff with minimal changes
-                    int maxUnchanged = 0;
-                    int index = 0;
-                    int delta = Math.abs(node.getLength() - node.getOpposite().getLength());
-                    for (int i = 0; i <= delta; i++) {
-                        int xOffset = node.getLength() > minLength ? i : 0;
-                        int yOffset = node.getOpposite().getLength() > minLength ? i : 0;
-                        // Compare ranges
-                        DiffNode diff = incrementalDiffHandler.diff(
-                            x, node.getOffset() + xOffset, minLength,
-                            y, node.getOpposite().getOffset() + yOffset, minLength);
-
-                        int unchanged = getUnchangedLength(diff.getFirst());
-                        if (unchanged > maxUnchanged) {
-                            maxUnchanged = unchanged;
-                            index = i;
-                        }
-                    }
-                    if (maxUnchanged > 0) {
+                    // Find position of shorter range with minimal changes
+                    int index = aligner.align(
+                        x, sourceOffset, node.getLength(),
+                        y, targetOffset, node.getOpposite().getLength());
+                    if (index >= 0) {
                         // We found diff with minimal changes
+                        alignedCount++;
                         if (node.getLength() < node.getOpposite().getLength()) {
                             // Removed items is less that added items
                             // Insert virtual before
@@ -241,6 +474,7 @@ public final class DiffAlgorithm {
                                 node.insertBefore(newNode);
                                 node.getOpposite().insertBefore(newNode.getOpposite());
                                 node.getOpposite().setLength(node.getOpposite().getLength() - index);
+                                targetOffset += index;
                             }
                             // Insert virtual after
                             if (minLength < node.getOpposite().getLength()) {
@@ -259,6 +493,7 @@ public final class DiffAlgorithm {
                                 node.insertBefore(newNode);
                                 node.getOpposite().insertBefore(newNode.getOpposite());
                                 node.setLength(node.getLength() - index);
+                                sourceOffset += index;
                             }
                             // Insert virtual after
                             if (minLength < node.getLength()) {
@@ -273,44 +508,96 @@ public final class DiffAlgorithm {
                     }
                 }
             }
+            sourceOffset += node.getLength();
+            targetOffset += node.hasOpposite() ? node.getOpposite().getLength() : 0;
             node = node.getNext();
         }
-        return previous != null ? previous.getFirst() : null;
+        DiffNode first = previous != null ? previous.getFirst() : null;
+        event.commit(aligner, alignedCount, first);
+        return first;
     }
 
-    private static int getUnchangedLength(DiffNode node) {
-        int result = 0;
+    /**
+     * @param node First node or <code>null</code>
+     * @return Count of nodes from given node to the last one
+     */
+    static int count(DiffNode node) {
+        int count = 0;
         while (node != null) {
-            if (DiffNode.Type.UNCHANGED.equals(node.getType())) {
-                result += node.getLength();
-            }
+            count++;
             node = node.getNext();
         }
-        return result;
+        return count;
+    }
+
+    /**
+     * Aligner which compares shorter range with each window of longer range by
+     * {@link org.trinkets.util.diff.IncrementalDiffHandler} and takes window with maximal unchanged length.
+     */
+    private static final class IncrementalChangeAligner<T> implements ChangeAligner<T> {
+        private final IncrementalDiffHandler<T> incrementalDiffHandler;
+
+        private IncrementalChangeAligner(IncrementalDiffHandler<T> incrementalDiffHandler) {
+            this.incrementalDiffHandler = incrementalDiffHandler;
+        }
+
+        public int align(T[] x, int xOffset, int xLength, T[] y, int yOffset, int yLength) {
+            int minLength = Math.min(xLength, yLength);
+            int delta = Math.abs(xLength - yLength);
+            int maxUnchanged = 0;
+            int index = -1;
+            for (int i = 0; i <= delta; i++) {
+                // Compare ranges
+                DiffNode diff = incrementalDiffHandler.diff(
+                    x, xOffset + (xLength > minLength ? i : 0), minLength,
+                    y, yOffset + (yLength > minLength ? i : 0), minLength);
+
+                int unchanged = getUnchangedLength(diff != null ? diff.getFirst() : null);
+                if (unchanged > maxUnchanged) {
+                    maxUnchanged = unchanged;
+                    index = i;
+                }
+            }
+            return index;
+        }
+
+        private static int getUnchangedLength(DiffNode node) {
+            int result = 0;
+            while (node != null) {
+                if (DiffNode.Type.UNCHANGED.equals(node.getType())) {
+                    result += node.getLength();
+                }
+                node = node.getNext();
+            }
+            return result;
+        }
     }
 
     public static DiffNode splitByLength(DiffNode node, int length) {
-        DiffNode result = node;
+        DiffNode placeholder = node;
         while (node != null) {
-            node = node.splitByLength(length);
-            result = node.getFirst();
-            node = node.getNext();
+            placeholder = node.splitByLength(length);
+            node = placeholder.getNext();
         }
-        return result;
+        return placeholder != null ? placeholder.getFirst() : null;
     }
 
-    static final class ArrayRange<T> {
-        private final T[] array;
+    static final class IntArrayRange {
+        private final int[] array;
         private final int base;
         private final int length;
 
-        public ArrayRange(T[] array, int start, int length) {
+        public IntArrayRange(int[] array) {
+            this(array, 0, array.length);
+        }
+
+        public IntArrayRange(int[] array, int start, int length) {
             this.array = array;
             this.base = start;
             this.length = length;
         }
 
-        public T get(int i) {
+        public int get(int i) {
             return array[base + i];
         }
 
@@ -2,6 +2,17 @@ package org.trinkets.util.diff;
 
 import junit.framework.TestCase;
 
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Diff algorithm tests.
  *
@@ -11,14 +22,15 @@ public class DiffAlgorithmTest extends TestCase {
     public void testLcs() {
         Character[] x = Strings.toArray("XMJYAUZ".toCharArray());
         Character[] y = Strings.toArray("MZJAWXU".toCharArray());
-        int[][] c = DiffAlgorithm.lcs(
-            new DiffAlgorithm.ArrayRange<Character>(x, 0, x.length),
-            new DiffAlgorithm.ArrayRange<Character>(y, 0, y.length)
+        TokenInterner<Character> interner = new TokenInterner<Character>(x.length + y.length);
+        LcsMatrix c = DiffAlgorithm.lcs(
+            new DiffAlgorithm.IntArrayRange(interner.intern(x, 0, x.length)),
+            new DiffAlgorithm.IntArrayRange(interner.intern(y, 0, y.length))
         );
         StringBuilder builder = new StringBuilder();
-        for (int[] cx : c) {
-            for (int cy : cx) {
-                builder.append(cy);
+        for (int i = 0; i < c.getRows(); i++) {
+            for (int j = 0; j < c.getColumns(); j++) {
+                builder.append(c.get(i, j));
                 builder.append(' ');
             }
         }
@@ -33,10 +45,663 @@ public class DiffAlgorithmTest extends TestCase {
             "0 1 2 2 3 3 3 4 ", builder.toString());
     }
 
+    public void testLcsWavefront() {
+        Random random = new Random(239);
+        int[] x = new int[700];
+        int[] y = new int[900];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = random.nextInt(6);
+        }
+        for (int j = 0; j < y.length; j++) {
+            y[j] = random.nextInt(6);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            DiffAlgorithm.IntArrayRange xRange = new DiffAlgorithm.IntArrayRange(x, 3, 650);
+            DiffAlgorithm.IntArrayRange yRange = new DiffAlgorithm.IntArrayRange(y, 5, 890);
+            LcsMatrix expected = LcsMatrix.fill(xRange, yRange, null);
+            LcsMatrix actual = LcsMatrix.fill(xRange, yRange, pool);
+            for (int i = 0; i < expected.getRows(); i++) {
+                for (int j = 0; j < expected.getColumns(); j++) {
+                    int max = i > 0 && j > 0 ? Math.max(expected.get(i - 1, j), expected.get(i, j - 1)) : 0;
+                    assertTrue(expected.get(i, j) >= max);
+                    assertEquals(expected.get(i, j), actual.get(i, j));
+                }
+            }
+            assertEquals(
+                DiffAlgorithm.script(x, y, false, new LcsDiffEngine()).toString(),
+                DiffAlgorithm.script(x, y, false, new LcsDiffEngine(pool)).toString());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     public void testCompareChars() {
         DiffNode[] nodes = DiffAlgorithm.compare(Strings.toArray("true"), Strings.toArray("false"), false).toArray();
         assertEquals(2, nodes.length);
-        assertEquals("R:0,3->A:0,4", nodes[0].toString());
-        assertEquals("U:3,1->U:4,1", nodes[1].toString());
+        assertEquals("R:0,3->A:0,4", toStringWithOffsets(nodes[0]));
+        assertEquals("U:3,1->U:4,1", toStringWithOffsets(nodes[1]));
+    }
+
+    public void testCompareCharSequence() {
+        DiffNode[] nodes = DiffAlgorithm.compare("XMJYAUZ", "MZJAWXU", false).toArray();
+        DiffNode[] expected = DiffAlgorithm.compare(Strings.toArray("XMJYAUZ"), Strings.toArray("MZJAWXU"), false).toArray();
+        assertEquals(expected.length, nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            assertEquals(toStringWithOffsets(expected[i]), toStringWithOffsets(nodes[i]));
+        }
+        nodes = DiffAlgorithm.compare("a true b", "a false b", true).toArray();
+        assertEquals(3, nodes.length);
+        assertEquals("U:0,2->U:0,2", toStringWithOffsets(nodes[0]));
+        assertEquals("R:2,3->A:2,4", toStringWithOffsets(nodes[1]));
+        assertEquals("U:5,3->U:6,3", toStringWithOffsets(nodes[2]));
+    }
+
+    public void testCompareCharsMyers() {
+        DiffNode[] nodes = DiffAlgorithm.compare(Strings.toArray("true"), Strings.toArray("false"), false, new MyersDiffEngine()).toArray();
+        assertEquals(2, nodes.length);
+        assertEquals("R:0,3->A:0,4", toStringWithOffsets(nodes[0]));
+        assertEquals("U:3,1->U:4,1", toStringWithOffsets(nodes[1]));
+    }
+
+    public void testMyersSameAsLcs() {
+        String[][] samples = {
+            {"XMJYAUZ", "MZJAWXU"},
+            {"abcabba", "cbabac"},
+            {"", "abc"},
+            {"abc", ""},
+            {"same", "same"},
+            {"The red brown fox jumped over the roling log", "The brown spotted fox leaped over the rolling log"}
+        };
+        for (String[] sample : samples) {
+            assertSameUnchanged(sample[0], sample[1], new MyersDiffEngine());
+        }
+    }
+
+    public void testLinearSpaceSameAsLcs() {
+        String[][] samples = {
+            {"XMJYAUZ", "MZJAWXU"},
+            {"abcabba", "cbabac"},
+            {"", "abc"},
+            {"abc", ""},
+            {"same", "same"},
+            {"The red brown fox jumped over the roling log", "The brown spotted fox leaped over the rolling log"}
+        };
+        for (String[] sample : samples) {
+            assertSameUnchanged(sample[0], sample[1], new LinearSpaceDiffEngine());
+        }
+    }
+
+    public void testSplitAddedBeforeRemoved() {
+        DiffEngine engine = new DiffEngine() {
+            public void diff(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength, EditScript script) {
+                script.append(DiffNode.Type.ADDED, yLength);
+                script.append(DiffNode.Type.REMOVED, xLength);
+            }
+        };
+        DiffNode[] nodes = DiffAlgorithm.compare(Strings.toArray("abcd"), Strings.toArray("axyd"), true, engine).toArray();
+        assertEquals(3, nodes.length);
+        assertEquals("U:0,1->U:0,1", toStringWithOffsets(nodes[0]));
+        assertEquals("R:1,2->A:1,2", toStringWithOffsets(nodes[1]));
+        assertEquals("U:3,1->U:3,1", toStringWithOffsets(nodes[2]));
+    }
+
+    @SuppressWarnings({"deprecation"})
+    public void testEditScript() {
+        EditScript script = new EditScript(1);
+        script.append(DiffNode.Type.UNCHANGED, 2);
+        script.append(DiffNode.Type.ADDED, 1);
+        script.append(DiffNode.Type.REMOVED, 1);
+        script.append(DiffNode.Type.ADDED, 2);
+        script.append(DiffNode.Type.REMOVED, 2);
+        script.append(DiffNode.Type.REMOVED, 0);
+        script.append(DiffNode.Type.UNCHANGED, 1);
+        script.append(DiffNode.Type.REMOVED, 3);
+        assertEquals("U:0,0,2 R:2,2,3 A:5,2,3 U:5,5,1 R:6,6,3", script.toString());
+        assertEquals(9, script.getSourceLength());
+        assertEquals(6, script.getTargetLength());
+        assertEquals(1, script.indexOfSource(2));
+        assertEquals(3, script.indexOfSource(5));
+        assertEquals(3, script.indexOfTarget(5));
+        assertEquals(4, script.indexOfTarget(6));
+        int count = 0;
+        for (EditScript.Entry entry : script) {
+            assertEquals(count++, entry.getIndex());
+        }
+        assertEquals(script.size(), count);
+
+        DiffNode[] nodes = script.toDiffNode().toArray();
+        assertEquals(4, nodes.length);
+        assertEquals("R:2,3->A:2,3", toStringWithOffsets(nodes[1]));
+        assertEquals("R:6,3->V:6,0", toStringWithOffsets(nodes[3]));
+
+        // Nodes split by length are kept as is
+        DiffNode node = DiffAlgorithm.splitByLength(script.toDiffNode(), 1);
+        EditScript split = EditScript.of(node);
+        assertEquals(split.toString(), toString(node), toString(split.toDiffNode()));
+        assertEquals(9, split.getSourceLength());
+        assertEquals(6, split.getTargetLength());
+
+        // Long sequences don't overflow the stack
+        script = new EditScript();
+        for (int i = 0; i < 100000; i++) {
+            script.append(DiffNode.Type.UNCHANGED, 1);
+            script.append(DiffNode.Type.REMOVED, 1);
+        }
+        node = script.toDiffNode();
+        assertSame(node, node.getLast().getFirst());
+        assertEquals(199999, node.getLast().getOffset());
+        assertEquals(199999, script.getSourceOffset(script.size() - 1));
+    }
+
+    public void testLinesChangeAligner() {
+        String[] x = {"int a = 1;\n", "int b = 2;\n"};
+        String[] y = {"// header\n", "/* one */\n", "int a = 10;\n", "int b = 20;\n", "return;\n"};
+        assertEquals(2, new LinesChangeAligner().align(x, 0, 2, y, 0, 5));
+        assertEquals(2, new LinesChangeAligner().align(y, 0, 5, x, 0, 2));
+        assertEquals(-1, new LinesChangeAligner().align(new String[]{"a"}, 0, 1, new String[]{"b", "c"}, 0, 2));
+
+        DiffNode node = DiffAlgorithm.compare(x, y, true);
+        node = DiffAlgorithm.alignChanged(node, x, y, new LinesChangeAligner());
+        DiffNode[] nodes = node.toArray();
+        assertEquals(3, nodes.length);
+        assertEquals("V:0,0->A:0,2", toStringWithOffsets(nodes[0]));
+        assertEquals("R:0,2->A:2,2", toStringWithOffsets(nodes[1]));
+        assertEquals("V:2,0->A:4,1", toStringWithOffsets(nodes[2]));
+    }
+
+    public void testSpanTokenizer() {
+        String text = "The (red) fox,  jumped\r\nover  \u2116 1-2";
+        StringTokenizer expected = new StringTokenizer(text, Strings.WORD_SEPARATORS, true);
+        int[] bounds = SpanTokenizer.WORDS.tokenize(text, 0, text.length());
+        SpanInterner interner = new SpanInterner(1);
+        int[] ids = interner.intern(text, bounds);
+        assertEquals(expected.countTokens(), bounds.length - 1);
+        for (int i = 0; i < bounds.length - 1; i++) {
+            String token = expected.nextToken();
+            assertEquals(token, text.substring(bounds[i], bounds[i + 1]));
+            assertEquals(ids[i], interner.intern(token, 0, token.length()));
+        }
+        assertEquals(0, SpanTokenizer.WORDS.tokenize("", 0, 0).length - 1);
+        assertEquals(ids[1], ids[5]);
+    }
+
+    public void testLineIndex() throws Exception {
+        String text = "one\r\ntwo\rthree\n\n№ four\r\n\r";
+        String[] expected = {"one\r\n", "two\r", "three\n", "\n", "№ four\r\n", "\r"};
+        LineIndex chars = new LineIndex(CharBuffer.wrap(text));
+        LineIndex bytes = new LineIndex(ByteBuffer.wrap(text.getBytes("UTF-8")), Charset.forName("UTF-8"));
+        assertEquals(expected.length, chars.size());
+        assertEquals(expected.length, bytes.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], chars.getText(i, 1).toString());
+            assertEquals(expected[i], bytes.getText(i, 1).toString());
+            assertEquals(expected[i].hashCode(), chars.getHash(i));
+            assertTrue(chars.equals(i, bytes, i));
+        }
+        assertEquals(0, new LineIndex("").size());
+        assertEquals(1, new LineIndex("last").size());
+        assertEquals(expected.length, Strings.lines(text).length);
+        assertEquals(expected[4], Strings.lines(ByteBuffer.wrap(text.getBytes("UTF-8")), "UTF-8")[4]);
+
+        LineIndex other = new LineIndex("two\rone\r\none\n");
+        int[][] ids = LineIndex.intern(chars, other);
+        assertEquals(ids[0][1], ids[1][0]);
+        assertEquals(ids[0][0], ids[1][1]);
+        assertTrue(ids[1][1] != ids[1][2]);
+    }
+
+    public void testInterner() {
+        TokenInterner<String> interner = new TokenInterner<String>(1);
+        int[] ids = interner.intern(new String[]{"a", "b", null, "a", new String("b"), "c"}, 0, 6);
+        assertEquals(ids[0], ids[3]);
+        assertEquals(ids[1], ids[4]);
+        assertTrue(ids[0] != ids[1] && ids[1] != ids[2] && ids[0] != ids[5]);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(interner.intern(String.valueOf(i)), interner.intern(String.valueOf(i)));
+        }
+        assertEquals(1004, interner.size());
+    }
+
+    public void testRandomSameAsLcs() {
+        Random random = new Random(239);
+        for (int i = 0; i < 200; i++) {
+            String source = randomString(random, random.nextInt(40), 4);
+            String target = randomString(random, random.nextInt(40), 4);
+            assertSameUnchanged(source, target, new MyersDiffEngine());
+            assertSameUnchanged(source, target, new LinearSpaceDiffEngine());
+        }
+    }
+
+    public void testBitParallelSameAsLcs() {
+        Random random = new Random(239);
+        for (int i = 0; i < 300; i++) {
+            int alphabet = 2 + random.nextInt(20);
+            String source = randomString(random, random.nextInt(200), alphabet);
+            String target = randomString(random, random.nextInt(200), alphabet);
+            assertSameNodes(source, target, new BitParallelDiffEngine());
+        }
+    }
+
+    static void assertSameNodes(String source, String target, DiffEngine engine) {
+        DiffNode expected = DiffAlgorithm.compare(Strings.toArray(source), Strings.toArray(target), false, new LcsDiffEngine());
+        DiffNode actual = DiffAlgorithm.compare(source, target, false, engine);
+        assertEquals(source + " -> " + target, toString(expected), toString(actual));
+    }
+
+    /**
+     * @return Node as <code>type:offset,length->type:offset,length</code>, offsets are counted by walk to first node
+     */
+    private static String toStringWithOffsets(DiffNode node) {
+        String result = node.getType().name().charAt(0) + ":" + getOffset(node) + "," + node.getLength();
+        if (node.hasOpposite()) {
+            DiffNode opposite = node.getOpposite();
+            result += "->" + opposite.getType().name().charAt(0) + ":" + getOffset(opposite) + "," + opposite.getLength();
+        }
+        return result;
+    }
+
+    private static int getOffset(DiffNode node) {
+        int offset = 0;
+        for (DiffNode n = node.getPrevious(); n != null; n = n.getPrevious()) {
+            offset += n.getLength();
+        }
+        return offset;
+    }
+
+    private static String toString(DiffNode node) {
+        StringBuilder builder = new StringBuilder();
+        for (DiffNode n = node; n != null; n = n.getNext()) {
+            builder.append(n).append(' ');
+        }
+        return builder.toString();
+    }
+
+    public void testPatienceAndHistogram() {
+        Random random = new Random(239);
+        for (int i = 0; i < 200; i++) {
+            String source = randomString(random, random.nextInt(60), 2 + random.nextInt(30));
+            String target = randomString(random, random.nextInt(60), 2 + random.nextInt(30));
+            assertValid(source, target, new PatienceDiffEngine());
+            assertValid(source, target, new HistogramDiffEngine());
+            assertValid(source, target, new HistogramDiffEngine(new MyersDiffEngine(), 1));
+        }
+    }
+
+    public void testHistogramMaxChainLength() {
+        final List<Integer> fallbackLengths = new ArrayList<Integer>();
+        DiffEngine fallback = new DiffEngine() {
+            public void diff(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength, EditScript script) {
+                fallbackLengths.add(xLength);
+                new MyersDiffEngine().diff(x, xOffset, xLength, y, yOffset, yLength, script);
+            }
+        };
+        // Common token occurs maxChainLength + 1 times, so range is compared by fallback
+        int[] x = {1, 2, 1, 3, 1};
+        int[] y = {1, 4, 1, 5, 1};
+        DiffAlgorithm.script(x, y, false, new HistogramDiffEngine(fallback, 2));
+        assertEquals(Arrays.asList(5), fallbackLengths);
+
+        // Common token occurs maxChainLength times, so it is used as anchor
+        fallbackLengths.clear();
+        EditScript script = DiffAlgorithm.script(x, y, false, new HistogramDiffEngine(fallback, 3));
+        assertTrue(fallbackLengths.isEmpty());
+        assertEquals(DiffNode.Type.UNCHANGED, script.getType(script.indexOfSource(4)));
+    }
+
+    public void testPatienceAnchors() {
+        // Unique braces are used as anchors, so method bodies are not mixed
+        String[] x = {"a() {", "x", "}", "b() {", "y", "}"};
+        String[] y = {"b() {", "y", "}", "c() {", "x", "}"};
+        DiffNode[] nodes = DiffAlgorithm.compare(x, y, true, new PatienceDiffEngine()).toArray();
+        assertEquals(4, nodes.length);
+        assertEquals("R:0,3->V:0,0", toStringWithOffsets(nodes[0]));
+        assertEquals("U:3,2->U:0,2", toStringWithOffsets(nodes[1]));
+        assertEquals("V:5,0->A:2,3", toStringWithOffsets(nodes[2]));
+        assertEquals("U:5,1->U:5,1", toStringWithOffsets(nodes[3]));
+    }
+
+    public void testParallelSameAsSequential() {
+        Random random = new Random(239);
+        // Unique lines mixed with frequent ones, and random edits
+        int[] x = new int[40000];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = random.nextInt(4) == 0 ? 100 + i : random.nextInt(8);
+        }
+        int[] y = new int[x.length];
+        int length = 0;
+        for (int i = 0; i < x.length && length < y.length; i++) {
+            int edit = random.nextInt(50);
+            if (edit == 0) {
+                y[length++] = random.nextInt(8);
+            } else if (edit != 1) {
+                y[length++] = x[i];
+            }
+        }
+        int[] target = new int[length];
+        System.arraycopy(y, 0, target, 0, length);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertEquals(
+                DiffAlgorithm.script(x, target, true, new PatienceDiffEngine(new LinearSpaceDiffEngine())).toString(),
+                DiffAlgorithm.script(x, target, true,
+                    new PatienceDiffEngine(new LinearSpaceDiffEngine(pool), pool)).toString());
+            assertEquals(
+                DiffAlgorithm.script(x, target, true, new LinearSpaceDiffEngine()).toString(),
+                DiffAlgorithm.script(x, target, true, new LinearSpaceDiffEngine(pool)).toString());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testAdaptiveSelection() {
+        final List<AdaptiveDiffEngine.Selection> selections = new ArrayList<AdaptiveDiffEngine.Selection>();
+        AdaptiveDiffEngine engine = new AdaptiveDiffEngine();
+        engine.setListener(new AdaptiveDiffEngine.Listener() {
+            public void selected(AdaptiveDiffEngine.Selection selection) {
+                selections.add(selection);
+            }
+        });
+        Random random = new Random(239);
+
+        assertValid("XMJYAUZ", "MZJAWXU", engine);
+        assertEquals(AdaptiveDiffEngine.Choice.MATRIX, selections.get(0).getChoice());
+
+        String source = randomString(random, 2000, 4);
+        assertValid(source, source + "suffix", engine);
+        assertEquals(AdaptiveDiffEngine.Choice.TRIVIAL, selections.get(1).getChoice());
+
+        assertValid(source, randomString(random, 2000, 4), engine);
+        assertEquals(AdaptiveDiffEngine.Choice.BIT_PARALLEL, selections.get(2).getChoice());
+
+        engine.setMaxBitParallelAlphabet(2);
+        assertValid(source, source.substring(0, 1000) + "x" + source.substring(1001), engine);
+        assertEquals(AdaptiveDiffEngine.Choice.BIT_PARALLEL, selections.get(3).getChoice());
+        assertValid(source, source.substring(0, 1000) + "xx" + source.substring(1010, 1500) + "x" + source.substring(1500), engine);
+        assertEquals(AdaptiveDiffEngine.Choice.MYERS, selections.get(4).getChoice());
+        assertEquals(source.length(), selections.get(4).getPrefix() + selections.get(4).getXLength() + selections.get(4).getSuffix());
+
+        // Swapped halves look equal to estimation, Myers engine gives up at max distance
+        StringBuilder half = new StringBuilder();
+        StringBuilder otherHalf = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            half.append((char) (0x1000 + i));
+            otherHalf.append((char) (0x4000 + i));
+        }
+        String swapped = otherHalf.toString() + half;
+        EditScript script = DiffAlgorithm.script(Strings.toArray(half.toString() + otherHalf), Strings.toArray(swapped),
+            false, engine);
+        assertEquals(AdaptiveDiffEngine.Choice.MYERS, selections.get(5).getChoice());
+        assertEquals(10000, getUnchangedLength(script));
+        assertValid(half.toString() + otherHalf, swapped, script.toDiffNode());
+
+        engine.setMaxMyersDistance(10);
+        assertValid(source, randomString(random, 2000, 8), engine);
+        assertEquals(AdaptiveDiffEngine.Choice.LINEAR_SPACE, selections.get(6).getChoice());
+        assertTrue(selections.get(6).getReason().startsWith("estimated distance"));
+    }
+
+    public void testBudget() {
+        Random random = new Random(239);
+        String source = randomString(random, 3000, 8);
+        String target = randomString(random, 3000, 8);
+        DiffEngine[] engines = {
+            new LcsDiffEngine(), new MyersDiffEngine(), new LinearSpaceDiffEngine(), new BitParallelDiffEngine(),
+            new PatienceDiffEngine(), new HistogramDiffEngine(), new AdaptiveDiffEngine()
+        };
+        for (DiffEngine engine : engines) {
+            String name = engine.getClass().getSimpleName();
+
+            DiffBudget budget = new DiffBudget();
+            budget.setMaxCells(1000);
+            EditScript script = DiffAlgorithm.script(Strings.toArray(source), Strings.toArray(target), false, engine, budget);
+            assertTrue(name, script.isTruncated());
+            assertTrue(name, budget.isExhausted());
+            assertEquals(name, source.length(), script.getSourceLength());
+            assertEquals(name, target.length(), script.getTargetLength());
+            assertValid(source, target, script.toDiffNode());
+
+            budget = new DiffBudget();
+            script = DiffAlgorithm.script(Strings.toArray(source), Strings.toArray(target), false, engine, budget);
+            assertFalse(name, script.isTruncated());
+            assertEquals(name, DiffAlgorithm.script(Strings.toArray(source), Strings.toArray(target), false, engine).toString(),
+                script.toString());
+        }
+
+        // Myers keeps the furthest reaching path, so common prefix is not lost
+        DiffBudget budget = new DiffBudget();
+        budget.setMaxEditDistance(10);
+        EditScript script = DiffAlgorithm.script(source + source, source + "x" + target, false, new MyersDiffEngine(), budget);
+        assertTrue(script.isTruncated());
+        assertEquals(DiffNode.Type.UNCHANGED, script.getType(0));
+        assertEquals(source.length(), script.getLength(0));
+
+        budget = new DiffBudget();
+        budget.setTimeout(0, TimeUnit.NANOSECONDS);
+        script = DiffAlgorithm.script(source, target, true, new LinearSpaceDiffEngine(), budget);
+        assertTrue(script.isTruncated());
+        assertValid(source, target, script.toDiffNode());
+    }
+
+    public void testDiffSession() {
+        DiffSession session = new DiffSession("aaa\nbbb\nccc\nddd\neee\n", "aaa\nbbb\nccc\nddd\neee\n");
+        session.edit(4, 4, "");
+        assertEquals("aaa\nccc\nddd\neee\n", session.getTarget().toString());
+        assertEquals("U:0,0,1 R:1,1,1 U:2,1,3", session.getScript().toString());
+        session.edit(8, 0, "x\r\ny");
+        assertEquals("aaa\nccc\nx\r\nyddd\neee\n", session.getTarget().toString());
+        assertEquals("U:0,0,1 R:1,1,1 U:2,1,1 R:3,2,1 A:4,2,2 U:4,4,1", session.getScript().toString());
+        session.edit(8, 4, "");
+        assertEquals("U:0,0,1 R:1,1,1 U:2,1,3", session.getScript().toString());
+
+        Random random = new Random(239);
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            source.append(randomString(random, random.nextInt(3), 3)).append(random.nextInt(10) == 0 ? "\r\n" : "\n");
+        }
+        StringBuilder target = new StringBuilder(source);
+        session = new DiffSession(source.toString(), target.toString());
+        String alphabet = "ab\n\r";
+        for (int i = 0; i < 500; i++) {
+            int offset = random.nextInt(target.length() + 1);
+            int removed = random.nextInt(Math.min(target.length() - offset, 8) + 1);
+            StringBuilder inserted = new StringBuilder();
+            for (int j = random.nextInt(6); j > 0; j--) {
+                inserted.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            target.replace(offset, offset + removed, inserted.toString());
+            session.edit(offset, removed, inserted);
+            assertEquals(target.toString(), session.getTarget().toString());
+
+            String[] x = Strings.lines(source.toString());
+            String[] y = Strings.lines(target.toString());
+            EditScript script = session.getScript();
+            assertEquals(y.length, session.getTargetLineCount());
+            assertEquals(x.length, script.getSourceLength());
+            assertEquals(y.length, script.getTargetLength());
+            for (EditScript.Entry entry : script) {
+                if (DiffNode.Type.UNCHANGED.equals(entry.getType())) {
+                    for (int j = 0; j < entry.getLength(); j++) {
+                        assertEquals(x[entry.getSourceOffset() + j], y[entry.getTargetOffset() + j]);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testDiffSessionSameAsFullDiff() {
+        // Insert grows target beyond its initial lines
+        DiffSession session = new DiffSession("one\ntwo\n", "one\ntwo\n");
+        session.edit(4, 0, "new\n");
+        assertEquals("one\nnew\ntwo\n", session.getTarget().toString());
+        assertEquals("U:0,0,1 A:1,1,1 U:1,2,1", session.getScript().toString());
+
+        Random random = new Random(239);
+        String alphabet = "abc\n\n\n";
+        for (int s = 0; s < 1000; s++) {
+            String source = randomString(random, random.nextInt(20), 3).replace('c', '\n');
+            StringBuilder target = new StringBuilder(random.nextBoolean() ? source : "");
+            session = new DiffSession(source, target.toString());
+            for (int i = random.nextInt(30); i > 0; i--) {
+                int offset = random.nextInt(target.length() + 1);
+                int removed = random.nextInt(4) == 0 ? random.nextInt(Math.min(target.length() - offset, 4) + 1) : 0;
+                StringBuilder inserted = new StringBuilder();
+                for (int j = random.nextInt(8); j > 0; j--) {
+                    inserted.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                target.replace(offset, offset + removed, inserted.toString());
+                session.edit(offset, removed, inserted);
+            }
+            assertEquals(target.toString(), session.getTarget().toString());
+
+            // Session diff is valid and it is not shorter than optimal full diff
+            String[] x = Strings.lines(source);
+            String[] y = Strings.lines(target.toString());
+            EditScript actual = session.getScript();
+            EditScript expected = DiffAlgorithm.script(x, y, true, new LcsDiffEngine(), null);
+            assertEquals(expected.getSourceLength(), actual.getSourceLength());
+            assertEquals(expected.getTargetLength(), actual.getTargetLength());
+            assertTrue(getUnchangedLength(actual) <= getUnchangedLength(expected));
+            for (EditScript.Entry entry : actual) {
+                if (DiffNode.Type.UNCHANGED.equals(entry.getType())) {
+                    for (int j = 0; j < entry.getLength(); j++) {
+                        assertEquals(x[entry.getSourceOffset() + j], y[entry.getTargetOffset() + j]);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int getUnchangedLength(EditScript script) {
+        int length = 0;
+        for (EditScript.Entry entry : script) {
+            if (DiffNode.Type.UNCHANGED.equals(entry.getType())) {
+                length += entry.getLength();
+            }
+        }
+        return length;
+    }
+
+    public void testBinaryDelta() {
+        Random random = new Random(239);
+        byte[] source = new byte[100000];
+        random.nextBytes(source);
+        // Target is source with moved, removed and inserted blocks
+        ByteBuffer target = ByteBuffer.allocateDirect(source.length);
+        target.put(source, 50000, 30000);
+        target.put(source, 0, 20000);
+        byte[] inserted = new byte[1000];
+        random.nextBytes(inserted);
+        target.put(inserted);
+        target.put(source, 20010, 29990);
+        target.flip();
+
+        byte[] delta = BinaryDelta.create(ByteBuffer.wrap(source), target);
+        assertTrue(delta.length < 1100);
+        assertEquals(target, BinaryDelta.apply(ByteBuffer.wrap(source), ByteBuffer.wrap(delta)));
+
+        // Short and empty inputs are inserted
+        byte[] tiny = {1, 2, 3};
+        assertEquals(ByteBuffer.wrap(tiny),
+            BinaryDelta.apply(ByteBuffer.allocate(0), ByteBuffer.wrap(BinaryDelta.create(ByteBuffer.wrap(source), ByteBuffer.wrap(tiny)))));
+        assertEquals(ByteBuffer.allocate(0),
+            BinaryDelta.apply(ByteBuffer.wrap(source), ByteBuffer.wrap(BinaryDelta.create(ByteBuffer.wrap(source), ByteBuffer.allocate(0)))));
+
+        for (int i = 0; i < 100; i++) {
+            byte[] x = new byte[random.nextInt(2000)];
+            for (int j = 0; j < x.length; j++) {
+                x[j] = (byte) random.nextInt(3);
+            }
+            byte[] y = x.clone();
+            for (int j = random.nextInt(20); j > 0 && y.length > 0; j--) {
+                y[random.nextInt(y.length)] = (byte) random.nextInt(256);
+            }
+            ByteBuffer yBuffer = ByteBuffer.wrap(y, y.length / 3, y.length - y.length / 3);
+            delta = BinaryDelta.create(ByteBuffer.wrap(x), yBuffer);
+            assertEquals(yBuffer, BinaryDelta.apply(ByteBuffer.wrap(x), ByteBuffer.wrap(delta)));
+        }
+
+        delta[delta.length - 1]++;
+        assertMalformedDelta(delta);
+        // Negative count of insert
+        assertMalformedDelta(new byte[]{5, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        // Negative count of copy
+        assertMalformedDelta(new byte[]{5, 1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        // Length of target is larger than delta can produce
+        assertMalformedDelta(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+        assertMalformedDelta(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x0F});
+        // Truncated number and unknown instruction
+        assertMalformedDelta(new byte[]{(byte) 0x80});
+        assertMalformedDelta(new byte[]{1, 2, 0});
+    }
+
+    private static void assertMalformedDelta(byte[] delta) {
+        try {
+            BinaryDelta.apply(ByteBuffer.allocate(8), ByteBuffer.wrap(delta));
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Delta doesn't fit source
+        }
+    }
+
+    static void assertValid(String source, String target, DiffEngine engine) {
+        assertValid(source, target, DiffAlgorithm.compare(Strings.toArray(source), Strings.toArray(target), false, engine));
+    }
+
+    private static void assertValid(String source, String target, DiffNode actual) {
+        Character[] x = Strings.toArray(source);
+        Character[] y = Strings.toArray(target);
+        assertEquals(source + " -> " + target, source, toString(actual, x, true));
+        assertEquals(source + " -> " + target, target, toString(actual, y, false));
+        for (EditScript.Entry entry : EditScript.of(actual)) {
+            if (DiffNode.Type.UNCHANGED.equals(entry.getType())) {
+                assertEquals(source + " -> " + target,
+                    new String(Strings.toArray(x, entry.getSourceOffset(), entry.getLength())),
+                    new String(Strings.toArray(y, entry.getTargetOffset(), entry.getLength())));
+            }
+        }
+    }
+
+    static String randomString(Random random, int length, int alphabet) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(alphabet)));
+        }
+        return builder.toString();
+    }
+
+    static void assertSameUnchanged(String source, String target, DiffEngine engine) {
+        Character[] x = Strings.toArray(source);
+        Character[] y = Strings.toArray(target);
+        DiffNode expected = DiffAlgorithm.compare(x, y, false);
+        DiffNode actual = DiffAlgorithm.compare(x, y, false, engine);
+        assertEquals(source + " -> " + target, getUnchangedLength(expected, x.length), getUnchangedLength(actual, x.length));
+        assertEquals(source + " -> " + target, source, toString(actual, x, true));
+        assertEquals(source + " -> " + target, target, toString(actual, y, false));
+    }
+
+    private static int getUnchangedLength(DiffNode node, int length) {
+        if (node == null) {
+            return length;
+        }
+        int result = 0;
+        for (DiffNode n : node.toArray()) {
+            if (DiffNode.Type.UNCHANGED.equals(n.getType())) {
+                result += n.getLength();
+            }
+        }
+        return result;
+    }
+
+    private static String toString(DiffNode node, Character[] chars, boolean source) {
+        StringBuilder builder = new StringBuilder();
+        int offset = 0;
+        for (DiffNode n = node; n != null; n = n.getNext()) {
+            DiffNode side = source ? n : n.getOpposite();
+            builder.append(Strings.toArray(chars, offset, side.getLength()));
+            offset += side.getLength();
+        }
+        return builder.toString();
     }
-}
\ No newline at end of file
+}
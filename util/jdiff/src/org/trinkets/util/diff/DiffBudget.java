@@ -0,0 +1,111 @@
+package org.trinkets.util.diff;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Budget of comparison. Budget limits count of cells computed by engines, edit distance and time of comparison.
+ * Cell is a cell of LCS matrix, 64-bit word of bit-parallel row or diagonal of Myers D-path.
+ * Edit distance is limited only for engines which walk D-paths.
+ * <p/>
+ * Engines get budget from {@link org.trinkets.util.diff.EditScript#getBudget()} and spend it while they work.
+ * If budget is exhausted, then engine stops and appends coarse, but valid diff: the best path found so far,
+ * and remaining ranges as {@link org.trinkets.util.diff.DiffNode.Type#REMOVED} and
+ * {@link org.trinkets.util.diff.DiffNode.Type#ADDED}. Such script is marked as truncated.
+ * <p/>
+ * Budget can be shared by all comparisons of one request, and it is thread safe.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.EditScript#isTruncated()
+ */
+public class DiffBudget {
+    private long maxCells = Long.MAX_VALUE;
+    private long maxEditDistance = Long.MAX_VALUE;
+    private boolean hasDeadline = false;
+    private long deadline;
+    private final AtomicLong cells = new AtomicLong();
+    private volatile boolean exhausted = false;
+
+    /**
+     * Spend cells.
+     *
+     * @param count Count of cells
+     * @return <code>true</code> if budget allows to compute these cells
+     */
+    public boolean spend(long count) {
+        if (exhausted) {
+            return false;
+        }
+        if (cells.addAndGet(count) > maxCells || isExpired()) {
+            exhausted = true;
+        }
+        return !exhausted;
+    }
+
+    /**
+     * Check that edit distance is allowed.
+     *
+     * @param distance Edit distance
+     * @return <code>true</code> if budget allows such distance
+     */
+    public boolean allowsEditDistance(long distance) {
+        if (distance > maxEditDistance) {
+            exhausted = true;
+        }
+        return !exhausted;
+    }
+
+    /**
+     * Check that deadline is not passed.
+     *
+     * @return <code>true</code> if budget allows to continue
+     */
+    public boolean allowsTime() {
+        if (isExpired()) {
+            exhausted = true;
+        }
+        return !exhausted;
+    }
+
+    private boolean isExpired() {
+        return hasDeadline && System.nanoTime() - deadline > 0;
+    }
+
+    /**
+     * @return <code>true</code> if budget is exhausted, so some comparisons are truncated
+     */
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    public long getSpentCells() {
+        return cells.get();
+    }
+
+    public long getMaxCells() {
+        return maxCells;
+    }
+
+    public void setMaxCells(long maxCells) {
+        this.maxCells = maxCells;
+    }
+
+    public long getMaxEditDistance() {
+        return maxEditDistance;
+    }
+
+    public void setMaxEditDistance(long maxEditDistance) {
+        this.maxEditDistance = maxEditDistance;
+    }
+
+    /**
+     * Set deadline after given timeout from now.
+     *
+     * @param timeout Timeout
+     * @param unit    Unit of timeout
+     */
+    public void setTimeout(long timeout, TimeUnit unit) {
+        this.deadline = System.nanoTime() + unit.toNanos(timeout);
+        this.hasDeadline = true;
+    }
+}
@@ -0,0 +1,201 @@
+package org.trinkets.util.diff;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of diff results. Results are stored as {@link org.trinkets.util.diff.EditScript}s, keyed by
+ * SHA-256 digest of comparison mode, source and target. So the same texts are compared once, and
+ * then only markup is built from cached script.
+ * <p/>
+ * Cache keeps estimated size of scripts below given budget and evicts least recently used scripts.
+ * Engines are part of mode of comparison by their {@link Object#toString()}, see {@link org.trinkets.util.diff.DiffEngine}.
+ * Cache is thread safe.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.DiffMarkup#compareLines(String, String, DiffMarker, DiffEngine, DiffCache)
+ * @see org.trinkets.util.diff.DiffMarkup#compareWords(String, String, DiffMarker, DiffCache)
+ */
+public class DiffCache {
+    private static final String ALGORITHM = "SHA-256";
+    /**
+     * Estimated size of entry without script instructions: key, entry of map and script object
+     */
+    private static final int ENTRY_SIZE = 160;
+    /**
+     * Size of script instruction: type, source offset, target offset and length
+     */
+    private static final int INSTRUCTION_SIZE = 16;
+
+    private final Map<Key, EditScript> scripts = new LinkedHashMap<Key, EditScript>(16, 0.75f, true);
+    private long maxBytes;
+    private long bytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Create cache.
+     *
+     * @param maxBytes Budget of memory for cached scripts
+     */
+    public DiffCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Create key of comparison.
+     *
+     * @param mode   Mode of comparison, results of different modes are cached separately
+     * @param source Source text
+     * @param target Target text
+     * @return Key
+     */
+    public Key key(String mode, CharSequence source, CharSequence target) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(ALGORITHM + " is not supported", e);
+        }
+        byte[] buffer = new byte[4096];
+        update(digest, mode, buffer);
+        update(digest, source, buffer);
+        update(digest, target, buffer);
+        return new Key(digest.digest());
+    }
+
+    /**
+     * Update digest by length and characters of text, so different texts
+     * produce different input of digest.
+     */
+    private static void update(MessageDigest digest, CharSequence text, byte[] buffer) {
+        int length = text.length();
+        digest.update(new byte[]{(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+        int position = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            buffer[position++] = (byte) (c >>> 8);
+            buffer[position++] = (byte) c;
+            if (position == buffer.length) {
+                digest.update(buffer, 0, position);
+                position = 0;
+            }
+        }
+        digest.update(buffer, 0, position);
+    }
+
+    /**
+     * Return cached script.
+     *
+     * @param key Key of comparison
+     * @return Script or <code>null</code> if script is not cached
+     */
+    public synchronized EditScript get(Key key) {
+        EditScript script = scripts.get(key);
+        if (script != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return script;
+    }
+
+    /**
+     * Put script into cache. Arrays of script are trimmed to its size, and script should not be changed
+     * after it is cached.
+     *
+     * @param key    Key of comparison
+     * @param script Script
+     */
+    public synchronized void put(Key key, EditScript script) {
+        script.trimToSize();
+        long size = sizeOf(script);
+        if (size > maxBytes) {
+            return;
+        }
+        EditScript previous = scripts.put(key, script);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += size;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<EditScript> iterator = scripts.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= sizeOf(iterator.next());
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    private static long sizeOf(EditScript script) {
+        return ENTRY_SIZE + (long) script.getCapacity() * INSTRUCTION_SIZE;
+    }
+
+    public synchronized void clear() {
+        scripts.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * @return Estimated size of cached scripts
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int size() {
+        return scripts.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Key of comparison.
+     */
+    public static final class Key {
+        private final byte[] digest;
+        private final int hash;
+
+        private Key(byte[] digest) {
+            this.digest = digest;
+            this.hash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || o instanceof Key && Arrays.equals(digest, ((Key) o).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package org.trinkets.util.diff;
+
+/**
+ * Diff engine. Engine is an algorithm which is used by {@link org.trinkets.util.diff.DiffAlgorithm}
+ * to find differences between two ranges of arrays.
+ * <p/>
+ * Engine compares int ids of tokens, equal tokens have equal ids.
+ * The result of engine is appended to {@link org.trinkets.util.diff.EditScript} as instructions with types
+ * {@link org.trinkets.util.diff.DiffNode.Type#UNCHANGED}, {@link org.trinkets.util.diff.DiffNode.Type#ADDED}
+ * and {@link org.trinkets.util.diff.DiffNode.Type#REMOVED}. Script covers both ranges from begin to end.
+ * <p/>
+ * {@link org.trinkets.util.diff.DiffCache} distinguishes engines by {@link Object#toString()}, so engine
+ * which has configuration that changes result should describe it in <code>toString()</code>.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.LcsDiffEngine
+ * @see org.trinkets.util.diff.MyersDiffEngine
+ */
+public interface DiffEngine {
+    /**
+     * Compare ranges of arrays.
+     *
+     * @param x       X ids
+     * @param xOffset Start of range in X list
+     * @param xLength Length of range in X list
+     * @param y       Y ids
+     * @param yOffset Start of range in Y list
+     * @param yLength Length of range in Y list
+     * @param script  Script to append diff to
+     */
+    void diff(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength, EditScript script);
+}
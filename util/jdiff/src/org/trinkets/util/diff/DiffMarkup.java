@@ -1,5 +1,11 @@
 package org.trinkets.util.diff;
 
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
 /**
  * Diff markup utility.
  *
@@ -10,13 +16,34 @@ public final class DiffMarkup {
     }
 
     public static <T> void compare(T[] source, T[] target, DiffMarker<T> marker) {
-        DiffNode diff = DiffAlgorithm.compare(source, target, false);
+        compare(source, target, marker, null);
+    }
+
+    /**
+     * Compare arrays and report metrics of each phase.
+     *
+     * @param source  Source values
+     * @param target  Target values
+     * @param marker  Marker
+     * @param metrics Metrics of comparison, if <code>null</code> then metrics are not reported.
+     */
+    public static <T> void compare(T[] source, T[] target, DiffMarker<T> marker, DiffMetrics metrics) {
+        CompareEvent event = new CompareEvent();
+        event.begin();
+        DiffNode diff = DiffAlgorithm.script(source, target, false, DiffAlgorithm.DEFAULT_ENGINE, null, metrics)
+            .toDiffNode();
+        long start = now(metrics);
 
         // Markup diff results
-        markup(source, target, marker, diff.getFirst());
+        markup(source, target, marker, diff);
+        reportMarkup(metrics, start, diff);
+        event.commit("array", null, source.length, target.length, diff, false);
     }
 
     private static <T> void markup(T[] source, T[] target, DiffMarker<T> marker, DiffNode node) {
+        MarkupEvent event = new MarkupEvent();
+        event.begin();
+        int count = 0;
         int sourceOffset = 0;
         int targetOffset = 0;
         while (node != null) {
@@ -30,39 +57,500 @@ public final class DiffMarkup {
 
             sourceOffset += sourceLength;
             targetOffset += targetLength;
+            count++;
 
             node = node.getNext();
         }
+        event.commit(marker, sourceOffset, targetOffset, count);
     }
 
     public static void compareLines(String source, String target, DiffMarker<String> marker) {
-        String[] sourceLines = Strings.lines(source);
-        String[] targetLines = Strings.lines(target);
+        compareLines(source, target, marker, null);
+    }
 
-        DiffNode diff = DiffAlgorithm.compare(sourceLines, targetLines, true);
-        // Split opposite nodes with different length
-        diff = DiffAlgorithm.splitChanged(diff.getFirst(), sourceLines, targetLines, new IncrementalLinesDiffHandler());
-        // Split by one line per change
-        diff = DiffAlgorithm.splitByLength(diff.getFirst(), 1);
+    /**
+     * Compare lines by given engine.
+     *
+     * @param source Source text
+     * @param target Target text
+     * @param marker Marker
+     * @param engine Diff engine, for example {@link org.trinkets.util.diff.PatienceDiffEngine} or
+     *               {@link org.trinkets.util.diff.HistogramDiffEngine}. If <code>null</code> then default engine is used.
+     */
+    public static void compareLines(String source, String target, DiffMarker<String> marker, DiffEngine engine) {
+        compareLines(source, target, marker, engine, null);
+    }
 
-        // Markup diff results
-        markup(sourceLines, targetLines, marker, diff.getFirst());
+    /**
+     * Compare lines by given engine. Diff is taken from cache or it is put into cache after comparison.
+     *
+     * @param source Source text
+     * @param target Target text
+     * @param marker Marker
+     * @param engine Diff engine, if <code>null</code> then default engine is used.
+     * @param cache  Cache of diffs, if <code>null</code> then diff is not cached.
+     */
+    public static void compareLines(String source, String target, DiffMarker<String> marker, DiffEngine engine,
+                                    DiffCache cache) {
+        compareLines(source, target, marker, engine, cache, null);
+    }
+
+    /**
+     * Compare lines by given engine within budget. If budget is exhausted, then diff is coarse but valid,
+     * it is marked as is and it is not put into cache. Use {@link DiffBudget#isExhausted()} to check it.
+     *
+     * @param source Source text
+     * @param target Target text
+     * @param marker Marker
+     * @param engine Diff engine, if <code>null</code> then default engine is used.
+     * @param cache  Cache of diffs, if <code>null</code> then diff is not cached.
+     * @param budget Budget of comparison, if <code>null</code> then budget is not limited.
+     */
+    public static void compareLines(String source, String target, DiffMarker<String> marker, DiffEngine engine,
+                                    DiffCache cache, DiffBudget budget) {
+        compareLines(source, target, marker, engine, cache, budget, null);
+    }
+
+    /**
+     * Compare lines by given engine within budget and report metrics of each phase.
+     *
+     * @param source  Source text
+     * @param target  Target text
+     * @param marker  Marker
+     * @param engine  Diff engine, if <code>null</code> then default engine is used.
+     * @param cache   Cache of diffs, if <code>null</code> then diff is not cached.
+     * @param budget  Budget of comparison, if <code>null</code> then budget is not limited.
+     * @param metrics Metrics of comparison, if <code>null</code> then metrics are not reported.
+     */
+    public static void compareLines(String source, String target, DiffMarker<String> marker, DiffEngine engine,
+                                    DiffCache cache, DiffBudget budget, DiffMetrics metrics) {
+        CompareEvent event = new CompareEvent();
+        event.begin();
+        long start = metrics != null ? System.nanoTime() : 0;
+        LineIndex sourceIndex = new LineIndex(source);
+        LineIndex targetIndex = new LineIndex(target);
+        start = report(metrics, DiffMetrics.Phase.TOKENIZE, start);
+
+        DiffCache.Key key = null;
+        EditScript script = null;
+        long cacheTime = 0;
+        if (cache != null) {
+            key = cache.key("lines:" + (engine != null ? engine : ""), source, target);
+            script = cache.get(key);
+            cacheTime = -start;
+            start = now(metrics);
+            cacheTime += start;
+        }
+
+        boolean cached = script != null;
+        DiffNode diff;
+        if (cached) {
+            if (metrics != null) {
+                metrics.tokens(sourceIndex.size(), targetIndex.size());
+            }
+            diff = script.toDiffNode();
+        } else {
+            int[][] ids = LineIndex.intern(sourceIndex, targetIndex);
+            report(metrics, DiffMetrics.Phase.INTERN, start);
+            script = DiffAlgorithm.script(ids[0], ids[1], true, engine != null ? engine : DiffAlgorithm.DEFAULT_ENGINE,
+                budget, metrics);
+            start = now(metrics);
+            diff = script.toDiffNode();
+            // Split opposite nodes with different length
+            diff = DiffAlgorithm.alignChanged(diff, null, null,
+                new LinesChangeAligner(sourceIndex, targetIndex));
+            // Split by one line per change
+            diff = DiffAlgorithm.splitByLength(diff, 1);
+            start = report(metrics, DiffMetrics.Phase.SPLIT, start);
+            if (cache != null && !script.isTruncated()) {
+                cache.put(key, EditScript.of(diff));
+                cacheTime -= start;
+                start = now(metrics);
+                cacheTime += start;
+            }
+        }
+        if (metrics != null && cache != null) {
+            metrics.phase(DiffMetrics.Phase.CACHE, cacheTime);
+        }
+
+        // Markup diff results, lines are materialized only if marker can't mark spans of text
+        if (marker instanceof CharSequenceDiffMarker) {
+            markup(source, sourceIndex.getBounds(), target, targetIndex.getBounds(), (CharSequenceDiffMarker) marker, diff);
+        } else {
+            markup(sourceIndex.toArray(), targetIndex.toArray(), marker, diff);
+        }
+        reportMarkup(metrics, start, diff);
+        event.commit("lines", engine, sourceIndex.size(), targetIndex.size(), diff, cached);
+    }
+
+    /**
+     * Report time of phase.
+     *
+     * @param metrics Metrics or <code>null</code>
+     * @param phase   Phase
+     * @param start   Start time of phase
+     * @return Current time, it is start time of next phase, or zero if metrics are <code>null</code>
+     */
+    private static long report(DiffMetrics metrics, DiffMetrics.Phase phase, long start) {
+        if (metrics == null) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        metrics.phase(phase, now - start);
+        return now;
+    }
+
+    /**
+     * Report time of markup and count of marked nodes.
+     *
+     * @param metrics Metrics or <code>null</code>
+     * @param start   Start time of markup
+     * @param diff    First marked node
+     */
+    private static void reportMarkup(DiffMetrics metrics, long start, DiffNode diff) {
+        if (metrics != null) {
+            report(metrics, DiffMetrics.Phase.MARKUP, start);
+            metrics.nodes(DiffAlgorithm.count(diff));
+        }
+    }
+
+    /**
+     * @param metrics Metrics or <code>null</code>
+     * @return Current time or zero if metrics are <code>null</code>
+     */
+    private static long now(DiffMetrics metrics) {
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Compare lines of files. Files are mapped into memory and lines are indexed by hashes over mapped bytes,
+     * so files are not read into strings. Lines are decoded only when they are aligned or passed to marker.
+     * Files in encodings other than UTF-8, US-ASCII and ISO-8859-1 are decoded completely.
+     *
+     * @param source  Source file
+     * @param target  Target file
+     * @param charset Encoding of files
+     * @param marker  Marker
+     * @throws IOException If files can't be mapped
+     */
+    public static void compareFiles(Path source, Path target, Charset charset, DiffMarker<String> marker)
+        throws IOException {
+        compareFiles(source, target, charset, marker, null);
+    }
+
+    /**
+     * Compare lines of files by given engine.
+     *
+     * @param source  Source file
+     * @param target  Target file
+     * @param charset Encoding of files
+     * @param marker  Marker
+     * @param engine  Diff engine, if <code>null</code> then default engine is used.
+     * @throws IOException If files can't be mapped
+     * @see #compareFiles(Path, Path, Charset, DiffMarker)
+     */
+    public static void compareFiles(Path source, Path target, Charset charset, DiffMarker<String> marker,
+                                    DiffEngine engine) throws IOException {
+        compareFiles(source, target, charset, marker, engine, null);
+    }
+
+    /**
+     * Compare lines of files by given engine and report metrics of each phase.
+     *
+     * @param source  Source file
+     * @param target  Target file
+     * @param charset Encoding of files
+     * @param marker  Marker
+     * @param engine  Diff engine, if <code>null</code> then default engine is used.
+     * @param metrics Metrics of comparison, if <code>null</code> then metrics are not reported.
+     * @throws IOException If files can't be mapped
+     * @see #compareFiles(Path, Path, Charset, DiffMarker)
+     */
+    public static void compareFiles(Path source, Path target, Charset charset, DiffMarker<String> marker,
+                                    DiffEngine engine, DiffMetrics metrics) throws IOException {
+        compareFiles(source, target, charset, marker, engine, metrics, LineIndex.SEGMENT_SIZE);
+    }
+
+    static void compareFiles(Path source, Path target, Charset charset, DiffMarker<String> marker,
+                             DiffEngine engine, DiffMetrics metrics, int segmentSize) throws IOException {
+        CompareEvent event = new CompareEvent();
+        event.begin();
+        FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+        try {
+            FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.READ);
+            try {
+                long start = now(metrics);
+                LineIndex sourceIndex = LineIndex.map(sourceChannel, charset, segmentSize);
+                LineIndex targetIndex = LineIndex.map(targetChannel, charset, segmentSize);
+                start = report(metrics, DiffMetrics.Phase.TOKENIZE, start);
+
+                int[][] ids = LineIndex.intern(sourceIndex, targetIndex);
+                report(metrics, DiffMetrics.Phase.INTERN, start);
+                DiffNode diff = DiffAlgorithm.script(ids[0], ids[1], true,
+                    engine != null ? engine : DiffAlgorithm.DEFAULT_ENGINE, null, metrics).toDiffNode();
+                start = now(metrics);
+                // Split opposite nodes with different length
+                diff = DiffAlgorithm.alignChanged(diff, null, null,
+                    new LinesChangeAligner(sourceIndex, targetIndex));
+                // Split by one line per change, nodes don't keep text, so lines are still decoded by markup
+                diff = DiffAlgorithm.splitByLength(diff, 1);
+                start = report(metrics, DiffMetrics.Phase.SPLIT, start);
+
+                // Markup diff results
+                markup(sourceIndex, targetIndex, marker, diff);
+                reportMarkup(metrics, start, diff);
+                event.commit("files", engine, sourceIndex.size(), targetIndex.size(), diff, false);
+            } finally {
+                targetChannel.close();
+            }
+        } finally {
+            sourceChannel.close();
+        }
+    }
+
+    /**
+     * Markup diff of indexed lines split by one line per change, as {@link #compareLines(String, String, DiffMarker)}
+     * does. Lines are decoded one by one, so whole text is not kept in memory.
+     *
+     * @param source Source lines
+     * @param target Target lines
+     * @param marker Marker
+     * @param node   First node
+     */
+    private static void markup(LineIndex source, LineIndex target, DiffMarker<String> marker, DiffNode node) {
+        MarkupEvent event = new MarkupEvent();
+        event.begin();
+        int count = 0;
+        int sourceOffset = 0;
+        int targetOffset = 0;
+        while (node != null) {
+            DiffNode opposite = node.hasOpposite() ? node.getOpposite() : node;
+            int sourceLength = node.getLength();
+            int targetLength = opposite.getLength();
+
+            CharSequence sourceLine = source.getText(sourceOffset, sourceLength);
+            CharSequence targetLine = target.getText(targetOffset, targetLength);
+            if (marker instanceof CharSequenceDiffMarker) {
+                ((CharSequenceDiffMarker) marker).apply(
+                    node, sourceLine, 0, sourceLine.length(),
+                    opposite, targetLine, 0, targetLine.length()
+                );
+            } else {
+                marker.apply(
+                    node, new String[]{sourceLine.toString()}, 0, sourceLength,
+                    opposite, new String[]{targetLine.toString()}, 0, targetLength
+                );
+            }
+
+            sourceOffset += sourceLength;
+            targetOffset += targetLength;
+            count++;
+
+            node = node.getNext();
+        }
+        event.commit(marker, sourceOffset, targetOffset, count);
     }
 
     public static void compareWords(String source, String target, DiffMarker<String> marker) {
-        compare(Strings.words(source), Strings.words(target), marker);
+        compareWords((CharSequence) source, (CharSequence) target, marker);
+    }
+
+    /**
+     * Compare words. If marker is {@link org.trinkets.util.diff.CharSequenceDiffMarker} then
+     * words are compared and marked as spans of text, without creating strings of words.
+     *
+     * @param source Source text
+     * @param target Target text
+     * @param marker Marker
+     */
+    public static void compareWords(CharSequence source, CharSequence target, DiffMarker<String> marker) {
+        compareWords(source, target, marker, null, null);
+    }
+
+    /**
+     * Compare words. Diff is taken from cache or it is put into cache after comparison.
+     *
+     * @param source Source text
+     * @param target Target text
+     * @param marker Marker
+     * @param cache  Cache of diffs, if <code>null</code> then diff is not cached.
+     */
+    public static void compareWords(String source, String target, DiffMarker<String> marker, DiffCache cache) {
+        compareWords(source, target, marker, cache, null);
+    }
+
+    /**
+     * Compare words within budget. Diff is taken from cache or it is put into cache after comparison.
+     * If budget is exhausted, then diff is coarse but valid, it is marked as is and it is not put into cache.
+     *
+     * @param source Source text
+     * @param target Target text
+     * @param marker Marker
+     * @param cache  Cache of diffs, if <code>null</code> then diff is not cached.
+     * @param budget Budget of comparison, if <code>null</code> then budget is not limited.
+     * @see DiffBudget#isExhausted()
+     */
+    public static void compareWords(CharSequence source, CharSequence target, DiffMarker<String> marker,
+                                    DiffCache cache, DiffBudget budget) {
+        compareWords(source, target, marker, cache, budget, null);
+    }
+
+    /**
+     * Compare words within budget and report metrics of each phase.
+     *
+     * @param source  Source text
+     * @param target  Target text
+     * @param marker  Marker
+     * @param cache   Cache of diffs, if <code>null</code> then diff is not cached.
+     * @param budget  Budget of comparison, if <code>null</code> then budget is not limited.
+     * @param metrics Metrics of comparison, if <code>null</code> then metrics are not reported.
+     * @see #compareWords(CharSequence, CharSequence, DiffMarker, DiffCache, DiffBudget)
+     */
+    public static void compareWords(CharSequence source, CharSequence target, DiffMarker<String> marker,
+                                    DiffCache cache, DiffBudget budget, DiffMetrics metrics) {
+        CompareEvent event = new CompareEvent();
+        event.begin();
+        long start = now(metrics);
+        int[] sourceBounds = SpanTokenizer.WORDS.tokenize(source, 0, source.length());
+        int[] targetBounds = SpanTokenizer.WORDS.tokenize(target, 0, target.length());
+        start = report(metrics, DiffMetrics.Phase.TOKENIZE, start);
+
+        DiffCache.Key key = null;
+        EditScript script = null;
+        long cacheTime = 0;
+        if (cache != null) {
+            key = cache.key("words", source, target);
+            script = cache.get(key);
+            cacheTime = -start;
+            start = now(metrics);
+            cacheTime += start;
+        }
+        boolean cached = script != null;
+        if (cached) {
+            if (metrics != null) {
+                metrics.tokens(sourceBounds.length - 1, targetBounds.length - 1);
+            }
+        } else {
+            script = wordsScript(source, sourceBounds, target, targetBounds, budget, metrics);
+            start = now(metrics);
+            if (cache != null && !script.isTruncated()) {
+                cache.put(key, script);
+                cacheTime -= start;
+                start = now(metrics);
+                cacheTime += start;
+            }
+        }
+        if (metrics != null && cache != null) {
+            metrics.phase(DiffMetrics.Phase.CACHE, cacheTime);
+        }
+        DiffNode diff = script.toDiffNode();
+
+        // Markup diff results
+        if (marker instanceof CharSequenceDiffMarker) {
+            markup(source, sourceBounds, target, targetBounds, (CharSequenceDiffMarker) marker, diff);
+        } else {
+            markup(Strings.words(source.toString()), Strings.words(target.toString()), marker, diff);
+        }
+        reportMarkup(metrics, start, diff);
+        event.commit("words", null, sourceBounds.length - 1, targetBounds.length - 1, diff, cached);
+    }
+
+    private static EditScript wordsScript(CharSequence source, int[] sourceBounds, CharSequence target, int[] targetBounds,
+                                          DiffBudget budget, DiffMetrics metrics) {
+        long start = now(metrics);
+        SpanInterner interner = new SpanInterner(sourceBounds.length + targetBounds.length);
+        int[] sourceIds = interner.intern(source, sourceBounds);
+        int[] targetIds = interner.intern(target, targetBounds);
+        report(metrics, DiffMetrics.Phase.INTERN, start);
+        return DiffAlgorithm.script(sourceIds, targetIds, false, DiffAlgorithm.DEFAULT_ENGINE, budget, metrics);
     }
 
     public static void compareChars(String source, String target, DiffMarker<Character> marker) {
-        compare(Strings.toArray(source), Strings.toArray(target), marker);
+        compareChars((CharSequence) source, (CharSequence) target, marker);
+    }
+
+    /**
+     * Compare characters. If marker is {@link org.trinkets.util.diff.CharSequenceDiffMarker} then
+     * characters are compared and marked without boxing into {@link Character} arrays.
+     *
+     * @param source Source characters
+     * @param target Target characters
+     * @param marker Marker
+     */
+    public static void compareChars(CharSequence source, CharSequence target, DiffMarker<Character> marker) {
+        compareChars(source, target, marker, null);
     }
 
-    private static class IncrementalLinesDiffHandler implements IncrementalDiffHandler<String> {
-        public DiffNode diff(String[] x, int xOffset, int xLength, String[] y, int yOffset, int yLength) {
-            CharSequence xChars = Strings.toCharSequence(x, xOffset, xLength);
-            CharSequence yChars = Strings.toCharSequence(y, yOffset, yLength);
+    /**
+     * Compare characters and report metrics of each phase.
+     *
+     * @param source  Source characters
+     * @param target  Target characters
+     * @param marker  Marker
+     * @param metrics Metrics of comparison, if <code>null</code> then metrics are not reported.
+     * @see #compareChars(CharSequence, CharSequence, DiffMarker)
+     */
+    public static void compareChars(CharSequence source, CharSequence target, DiffMarker<Character> marker,
+                                    DiffMetrics metrics) {
+        if (marker instanceof CharSequenceDiffMarker) {
+            CompareEvent event = new CompareEvent();
+            event.begin();
+            DiffNode diff = DiffAlgorithm.script(source, target, false, DiffAlgorithm.DEFAULT_ENGINE, null, metrics)
+                .toDiffNode();
+            long start = now(metrics);
 
-            return DiffAlgorithm.compare(Strings.words(xChars.toString()), Strings.words(yChars.toString()), false);
+            // Markup diff results
+            markup(source, null, target, null, (CharSequenceDiffMarker) marker, diff);
+            reportMarkup(metrics, start, diff);
+            event.commit("chars", null, source.length(), target.length(), diff, false);
+        } else {
+            long start = now(metrics);
+            Character[] sourceChars = Strings.toArray(source);
+            Character[] targetChars = Strings.toArray(target);
+            report(metrics, DiffMetrics.Phase.TOKENIZE, start);
+            compare(sourceChars, targetChars, marker, metrics);
         }
     }
+
+    /**
+     * Markup diff of spans.
+     *
+     * @param source       Source text
+     * @param sourceBounds Bounds of source tokens or <code>null</code> if tokens are characters
+     * @param target       Target text
+     * @param targetBounds Bounds of target tokens or <code>null</code> if tokens are characters
+     * @param marker       Marker
+     * @param node         First node
+     */
+    private static void markup(CharSequence source, int[] sourceBounds, CharSequence target, int[] targetBounds,
+                               CharSequenceDiffMarker marker, DiffNode node) {
+        MarkupEvent event = new MarkupEvent();
+        event.begin();
+        int count = 0;
+        int sourceOffset = 0;
+        int targetOffset = 0;
+        while (node != null) {
+            int sourceLength = node.getLength();
+            int targetLength = node.hasOpposite() ? node.getOpposite().getLength() : sourceLength;
+
+            int sourceStart = bound(sourceBounds, sourceOffset);
+            int targetStart = bound(targetBounds, targetOffset);
+            marker.apply(
+                node, source, sourceStart, bound(sourceBounds, sourceOffset + sourceLength) - sourceStart,
+                node.hasOpposite() ? node.getOpposite() : node, target, targetStart,
+                bound(targetBounds, targetOffset + targetLength) - targetStart
+            );
+
+            sourceOffset += sourceLength;
+            targetOffset += targetLength;
+            count++;
+
+            node = node.getNext();
+        }
+        event.commit(marker, sourceOffset, targetOffset, count);
+    }
+
+    private static int bound(int[] bounds, int index) {
+        return bounds != null ? bounds[index] : index;
+    }
 }
@@ -2,6 +2,33 @@ package org.trinkets.util.diff;
 
 import junit.framework.TestCase;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
 /**
  * Diff tests.
  *
@@ -16,6 +43,14 @@ public class DiffMarkupTest extends TestCase {
         return new StringDiffMarker(new PlainTextDiffMarkupDecorator());
     }
 
+    private static StringBuilderDiffMarkupDecorator createTableDecorator() {
+        return new HtmlTableMarkupDecorator() {
+            public CharSequence escape(CharSequence chars) {
+                return chars;
+            }
+        };
+    }
+
     private static StringBuilderDiffMarker<String> createIncrementalMarker() {
         return new IncrementalLinesDiffMarker(new IncrementalWordsDiffMarker(createCharacterMarker()));
     }
@@ -28,6 +63,26 @@ public class DiffMarkupTest extends TestCase {
         assertEquals("M+Z+JA+WX+U", marker.getTargetResult());
     }
 
+    public void testCompareCharactersBoxed() {
+        final StringBuilder sourceResult = new StringBuilder();
+        final StringBuilder targetResult = new StringBuilder();
+        DiffMarkup.compareChars("XMJYAUZ", "MZJAWXU", new DiffMarker<Character>() {
+            public void apply(DiffNode sourceNode, Character[] source, int sourceOffset, int sourceLength,
+                              DiffNode targetNode, Character[] target, int targetOffset, int targetLength) {
+                String sourceMark = DiffNode.Type.REMOVED.equals(sourceNode.getType()) ? "-" : "";
+                String targetMark = DiffNode.Type.ADDED.equals(targetNode.getType()) ? "+" : "";
+                sourceResult.append(sourceMark).append(Strings.toArray(source, sourceOffset, sourceLength)).append(sourceMark);
+                targetResult.append(targetMark).append(Strings.toArray(target, targetOffset, targetLength)).append(targetMark);
+            }
+
+            public void reset() {
+            }
+        });
+
+        assertEquals("-X-MJ-Y-AU-Z-", sourceResult.toString());
+        assertEquals("M+Z+JA+WX+U", targetResult.toString());
+    }
+
     public void testCompareWords() {
         StringBuilderDiffMarker<String> marker = createStringMarker();
         DiffMarkup.compareWords(
@@ -52,6 +107,25 @@ public class DiffMarkupTest extends TestCase {
             "+leaped over the rolling log+", marker.getTargetResult());
     }
 
+    public void testCompareLinesOfDifferentCount() {
+        String[][] cases = {
+            {"a\nb", "c", "-a\n--b-", "+c+"},
+            {"a\nb\nc", "d", "-a\n--b\n--c-", "+d+"},
+            {"c", "a\nb", "-c-", "+a\n++b+"},
+        };
+        for (String[] c : cases) {
+            StringBuilderDiffMarker<String> marker = createStringMarker();
+            DiffMarkup.compareLines(c[0], c[1], marker);
+            assertEquals(c[2], marker.getSourceResult());
+            assertEquals(c[3], marker.getTargetResult());
+
+            marker = createIncrementalMarker();
+            DiffMarkup.compareLines(c[0], c[1], marker);
+            assertEquals(c[2], marker.getSourceResult());
+            assertEquals(c[3], marker.getTargetResult());
+        }
+    }
+
     public void testCompareLinesIncremental() {
         StringBuilderDiffMarker<String> marker = createIncrementalMarker();
         DiffMarkup.compareLines("The red brown fox\n" +
@@ -92,6 +166,536 @@ public class DiffMarkupTest extends TestCase {
             "hhh\n+", marker.getTargetResult());
     }
 
+    public void testStreamingOutput() throws Exception {
+        String source = "The red brown fox\njumped over the roling log\n\u00ab\ud834\udd1e\u00bb\n";
+        String target = "The brown spotted fox\nleaped over the rolling log\n\u00ab\ud834\udd1e!\n";
+        StringBuilderDiffMarker<String> expected = createIncrementalMarker();
+        DiffMarkup.compareLines(source, target, expected);
+
+        StringWriter sourceOutput = new StringWriter();
+        StringWriter targetOutput = new StringWriter();
+        StringBuilderDiffMarker<String> marker = createIncrementalMarker();
+        marker.setOutput(sourceOutput, targetOutput);
+        DiffMarkup.compareLines(source, target, marker);
+        assertNull(marker.getOutputError());
+        assertEquals(expected.getSourceResult(), sourceOutput.toString());
+        assertEquals(expected.getTargetResult(), targetOutput.toString());
+        assertEquals("", marker.getSourceResult());
+        assertEquals("", marker.getTargetResult());
+
+        // Small buffer splits surrogate pairs between writes
+        Charset charset = Charset.forName("UTF-8");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Writer writer = new ChannelWriter(Channels.newChannel(bytes), charset.newEncoder(), 3);
+        marker = createIncrementalMarker();
+        marker.setOutput(writer, null);
+        DiffMarkup.compareLines(source, target, marker);
+        writer.close();
+        assertEquals(expected.getSourceResult(), new String(bytes.toByteArray(), "UTF-8"));
+        assertEquals(expected.getTargetResult(), marker.getTargetResult());
+    }
+
+    public void testStatisticsWithoutMarkup() {
+        StringBuilderDiffMarker<String> delegate = createStringMarker();
+        StatisticsDiffMarker<String> marker = new StatisticsDiffMarker<String>(delegate, false);
+        DiffMarkup.compareWords("The red brown fox", "The brown spotted fox", marker);
+        assertEquals(1, marker.getAddedCount());
+        assertEquals(1, marker.getRemovedCount());
+        assertEquals(3, marker.getUnchangedCount());
+        assertEquals(8.0 / 21.0, marker.getAddedPercent(), 1e-9);
+        assertEquals(4.0 / 17.0, marker.getRemovePercent(), 1e-9);
+        assertEquals("", delegate.getSourceResult());
+        assertEquals("", delegate.getTargetResult());
+    }
+
+    public void testCache() {
+        String source = "aaa\n\nbbb\nccc\n\nddd\n\neee\nfff\nggg\n";
+        String target = "aaa\n\nzzz\nbbb\n\nxxx\nddd\n\nfff\nggg\nhhh\n";
+        StringBuilderDiffMarker<String> expected = createIncrementalMarker();
+        DiffMarkup.compareLines(source, target, expected);
+
+        DiffCache cache = new DiffCache(1024);
+        for (int i = 0; i < 2; i++) {
+            StringBuilderDiffMarker<String> marker = createIncrementalMarker();
+            DiffMarkup.compareLines(source, target, marker, null, cache);
+            assertEquals(expected.getSourceResult(), marker.getSourceResult());
+            assertEquals(expected.getTargetResult(), marker.getTargetResult());
+        }
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // Words are cached separately
+        StringBuilderDiffMarker<String> marker = createStringMarker();
+        DiffMarkup.compareWords(source, target, marker, cache);
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.size());
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+
+        // The least recently used script is evicted
+        DiffMarkup.compareLines(source, target, createStringMarker(), null, cache);
+        cache.setMaxBytes(cache.getBytes() - 1);
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        DiffMarkup.compareLines(source, target, createStringMarker(), null, cache);
+        assertEquals(3, cache.getHitCount());
+
+        // Engines with different configuration are cached separately
+        cache = new DiffCache(1 << 20);
+        DiffMarkup.compareLines(source, target, createStringMarker(), new HistogramDiffEngine(new MyersDiffEngine(), 16), cache);
+        DiffMarkup.compareLines(source, target, createStringMarker(), new HistogramDiffEngine(new MyersDiffEngine(), 16), cache);
+        DiffMarkup.compareLines(source, target, createStringMarker(), new HistogramDiffEngine(new MyersDiffEngine(), 64), cache);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.size());
+
+        // Size of script is estimated by its trimmed arrays
+        cache.clear();
+        EditScript script = new EditScript(1024);
+        script.append(DiffNode.Type.UNCHANGED, 10);
+        cache.put(cache.key("script", source, target), script);
+        assertEquals(4, script.getCapacity());
+        assertTrue(cache.getBytes() < 1024);
+    }
+
+    public void testBudget() {
+        String source = "aaa\n\nbbb\nccc\n\nddd\n\neee\nfff\nggg\n";
+        String target = "aaa\n\nzzz\nbbb\n\nxxx\nddd\n\nfff\nggg\nhhh\n";
+        StringBuilderDiffMarker<String> expected = createStringMarker();
+        DiffMarkup.compareLines(source, target, expected);
+
+        // Exhausted budget gives coarse diff, which is not cached
+        DiffCache cache = new DiffCache(1024);
+        DiffBudget budget = new DiffBudget();
+        budget.setMaxCells(1);
+        StringBuilderDiffMarker<String> marker = createStringMarker();
+        DiffMarkup.compareLines(source, target, marker, new LcsDiffEngine(), cache, budget);
+        assertTrue(budget.isExhausted());
+        assertEquals(0, cache.size());
+        assertEquals("aaa\n\n-bbb\n--ccc\n--\n--ddd\n--\n--eee\n--fff\n--ggg\n-", marker.getSourceResult());
+        assertEquals("aaa\n\n+zzz\n++bbb\n++\n++xxx\n++ddd\n++\n++fff\n++ggg\n++hhh\n+", marker.getTargetResult());
+
+        budget = new DiffBudget();
+        marker = createStringMarker();
+        DiffMarkup.compareLines(source, target, marker, new LcsDiffEngine(), cache, budget);
+        assertFalse(budget.isExhausted());
+        assertEquals(1, cache.size());
+        assertEquals(expected.getSourceResult(), marker.getSourceResult());
+        assertEquals(expected.getTargetResult(), marker.getTargetResult());
+
+        budget = new DiffBudget();
+        budget.setMaxCells(1);
+        marker = createStringMarker();
+        DiffMarkup.compareWords("The red brown fox", "The brown spotted fox", marker, cache, budget);
+        assertTrue(budget.isExhausted());
+        assertEquals(1, cache.size());
+        assertEquals("-The red brown fox-", marker.getSourceResult());
+        assertEquals("+The brown spotted fox+", marker.getTargetResult());
+
+        // Without budget and cache
+        marker = createStringMarker();
+        DiffMarkup.compareWords("The red brown fox", "The brown spotted fox", marker, null);
+        assertEquals("The- red- brown fox", marker.getSourceResult());
+    }
+
+    public void testMetrics() throws Exception {
+        String source = "aaa\n\nbbb\nccc\n\nddd\n\neee\nfff\nggg\n";
+        String target = "aaa\n\nzzz\nbbb\n\nxxx\nddd\n\nfff\nggg\nhhh\n";
+        StringBuilderDiffMarker<String> expected = createStringMarker();
+        DiffMarkup.compareLines(source, target, expected);
+
+        AggregatingDiffMetrics metrics = new AggregatingDiffMetrics();
+        StringBuilderDiffMarker<String> marker = createStringMarker();
+        DiffMarkup.compareLines(source, target, marker, new LcsDiffEngine(), null, null, metrics);
+        assertEquals(expected.getSourceResult(), marker.getSourceResult());
+        assertEquals(expected.getTargetResult(), marker.getTargetResult());
+        assertPhases(metrics, 1, DiffMetrics.Phase.TOKENIZE, DiffMetrics.Phase.INTERN, DiffMetrics.Phase.DIFF,
+            DiffMetrics.Phase.LCS_FILL, DiffMetrics.Phase.BACKTRACK, DiffMetrics.Phase.SPLIT, DiffMetrics.Phase.MARKUP);
+        assertEquals(1, metrics.getTokens().getCount());
+        assertEquals(21, metrics.getTokens().getSum());
+        // Common prefix of two lines and suffix of nothing are not compared by engine
+        assertEquals(8 * 9, metrics.getCells().getSum());
+        assertEquals(5, metrics.getEditDistance().getSum());
+        assertTrue(metrics.getNodes().getSum() > 0);
+        assertTrue(metrics.toString().contains("diff.phase.lcs_fill.nanos count=1 "));
+
+        // Percentiles are upper bounds of power of two buckets
+        AggregatingDiffMetrics.Histogram histogram = metrics.getEditDistance();
+        metrics.editDistance(100);
+        metrics.editDistance(1000);
+        assertEquals(3, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(7, histogram.getPercentile(0));
+        assertEquals(127, histogram.getPercentile(50));
+        assertEquals(1000, histogram.getPercentile(100));
+        metrics.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+
+        // Engine phases of both ranges around anchor are reported once per comparison
+        DiffMarkup.compareLines("a\nx\nx\ny\ny\nb\nx\nx\ny\ny\nc\n", "a\ny\ny\nx\nx\nb\ny\ny\nx\nx\nc\n",
+            createStringMarker(), new PatienceDiffEngine(new LcsDiffEngine()), null, null, metrics);
+        assertPhases(metrics, 1, DiffMetrics.Phase.TOKENIZE, DiffMetrics.Phase.INTERN, DiffMetrics.Phase.DIFF,
+            DiffMetrics.Phase.LCS_FILL, DiffMetrics.Phase.BACKTRACK, DiffMetrics.Phase.SPLIT, DiffMetrics.Phase.MARKUP);
+        assertEquals(1, metrics.getCells().getCount());
+        assertEquals(2 * 4 * 4, metrics.getCells().getSum());
+
+        // Diff found in cache is not compared and split
+        metrics.reset();
+        DiffCache cache = new DiffCache(1 << 20);
+        DiffMarkup.compareLines(source, target, createStringMarker(), null, cache, null, metrics);
+        marker = createStringMarker();
+        DiffMarkup.compareLines(source, target, marker, null, cache, null, metrics);
+        assertEquals(expected.getSourceResult(), marker.getSourceResult());
+        assertEquals(2, metrics.getPhase(DiffMetrics.Phase.TOKENIZE).getCount());
+        assertEquals(2, metrics.getPhase(DiffMetrics.Phase.CACHE).getCount());
+        assertEquals(1, metrics.getPhase(DiffMetrics.Phase.INTERN).getCount());
+        assertEquals(1, metrics.getPhase(DiffMetrics.Phase.DIFF).getCount());
+        assertEquals(1, metrics.getPhase(DiffMetrics.Phase.SPLIT).getCount());
+        assertEquals(2, metrics.getPhase(DiffMetrics.Phase.MARKUP).getCount());
+        assertEquals(2, metrics.getTokens().getCount());
+        assertEquals(2, metrics.getNodes().getCount());
+
+        metrics.reset();
+        DiffMarkup.compareWords("The red brown fox", "The brown spotted fox", createStringMarker(), null, null, metrics);
+        assertPhases(metrics, 1, DiffMetrics.Phase.TOKENIZE, DiffMetrics.Phase.INTERN, DiffMetrics.Phase.DIFF,
+            DiffMetrics.Phase.LCS_FILL, DiffMetrics.Phase.BACKTRACK, DiffMetrics.Phase.MARKUP);
+        assertEquals(14, metrics.getTokens().getSum());
+
+        metrics.reset();
+        // Characters are ids themselves
+        DiffMarkup.compareChars("abcd", "acde", createCharacterMarker(), metrics);
+        assertPhases(metrics, 1, DiffMetrics.Phase.DIFF, DiffMetrics.Phase.LCS_FILL, DiffMetrics.Phase.BACKTRACK,
+            DiffMetrics.Phase.MARKUP);
+        assertEquals(2, metrics.getEditDistance().getSum());
+
+        metrics.reset();
+        DiffMarkup.compare(Strings.toArray("abcd"), Strings.toArray("acde"), createCharacterMarker(), metrics);
+        assertPhases(metrics, 1, DiffMetrics.Phase.INTERN, DiffMetrics.Phase.DIFF, DiffMetrics.Phase.LCS_FILL,
+            DiffMetrics.Phase.BACKTRACK, DiffMetrics.Phase.MARKUP);
+        assertEquals(8, metrics.getTokens().getSum());
+
+        metrics.reset();
+        Path sourceFile = Files.createTempFile("source", ".txt");
+        Path targetFile = Files.createTempFile("target", ".txt");
+        try {
+            Charset charset = Charset.forName("UTF-8");
+            Files.write(sourceFile, source.getBytes(charset));
+            Files.write(targetFile, target.getBytes(charset));
+            DiffMarkup.compareFiles(sourceFile, targetFile, charset, createStringMarker(), null, metrics);
+            assertPhases(metrics, 1, DiffMetrics.Phase.TOKENIZE, DiffMetrics.Phase.INTERN, DiffMetrics.Phase.DIFF,
+                DiffMetrics.Phase.LCS_FILL, DiffMetrics.Phase.BACKTRACK, DiffMetrics.Phase.SPLIT,
+                DiffMetrics.Phase.MARKUP);
+            assertEquals(21, metrics.getTokens().getSum());
+            assertEquals(5, metrics.getEditDistance().getSum());
+        } finally {
+            Files.delete(sourceFile);
+            Files.delete(targetFile);
+        }
+    }
+
+    private static void assertPhases(AggregatingDiffMetrics metrics, int count, DiffMetrics.Phase... phases) {
+        List<DiffMetrics.Phase> reported = Arrays.asList(phases);
+        for (DiffMetrics.Phase phase : DiffMetrics.Phase.values()) {
+            assertEquals(phase.name(), reported.contains(phase) ? count : 0, metrics.getPhase(phase).getCount());
+        }
+    }
+
+    public void testFlightRecorderEvents() throws Exception {
+        Recording recording = new Recording();
+        recording.enable(CompareEvent.class).withoutThreshold();
+        recording.enable(SubCompareEvent.class).withoutThreshold();
+        recording.enable(SplitChangedEvent.class).withoutThreshold();
+        recording.enable(MarkupEvent.class).withoutThreshold();
+        recording.start();
+        DiffMarkup.compareLines("aaa\nbbb\nccc\n", "aaa\nbbx\nxxx\nccc\n", createIncrementalMarker());
+        recording.stop();
+        Path file = Files.createTempFile("jdiff", ".jfr");
+        try {
+            recording.dump(file);
+            List<String> names = new ArrayList<String>();
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                String name = event.getEventType().getName();
+                names.add(name);
+                if (name.equals("org.trinkets.util.diff.Compare") && "lines".equals(event.getString("operation"))) {
+                    // Changed lines are compared again by words
+                    assertEquals("AdaptiveDiffEngine", event.getString("engine"));
+                    assertEquals(3, event.getInt("sourceLength"));
+                    assertEquals(4, event.getInt("targetLength"));
+                    assertEquals(4, event.getInt("nodeCount"));
+                    assertFalse(event.getBoolean("cached"));
+                }
+            }
+            assertTrue(names.contains("org.trinkets.util.diff.Compare"));
+            assertTrue(names.contains("org.trinkets.util.diff.SubCompare"));
+            assertTrue(names.contains("org.trinkets.util.diff.SplitChanged"));
+            assertTrue(names.contains("org.trinkets.util.diff.Markup"));
+        } finally {
+            recording.close();
+            Files.delete(file);
+        }
+    }
+
+    public void testMerge() {
+        String base = "a\nb\nc\nd\ne\nf\n";
+        TextMergeMarker marker = new TextMergeMarker();
+        DiffMerge.mergeLines(base, "a\nB\nc\nd\ne\nf\nz\n", "a\nb\nc\nD\ne\nf\n", marker);
+        assertEquals("a\nB\nc\nD\ne\nf\nz\n", marker.getResult());
+        assertEquals(0, marker.getConflictCount());
+
+        // The same change in both lists is not a conflict
+        DiffMerge.mergeLines(base, "a\nb\nX\nd\ne\nf\n", "a\nb\nX\nd\ne\nf", marker);
+        assertEquals(0, marker.getConflictCount());
+        DiffMerge.mergeLines(base, "a\nb\nX\nd\ne\nf\n", "a\nb\nY\nd\ne\nf", marker);
+        assertEquals("a\nb\n<<<<<<< ours\nX\n||||||| base\nc\n=======\nY\n>>>>>>> theirs\nd\ne\nf",
+            marker.getResult());
+        assertEquals(1, marker.getConflictCount());
+
+        // Regions have offsets in all lists
+        final StringBuilder regions = new StringBuilder();
+        MergeMarker<String> recorder = new MergeMarker<String>() {
+            public void apply(DiffMerge.Type type, String[] base, int baseOffset, int baseLength,
+                              String[] ours, int oursOffset, int oursLength,
+                              String[] theirs, int theirsOffset, int theirsLength) {
+                regions.append(type.name().charAt(0)).append(':').
+                    append(baseOffset).append(',').append(baseLength).append(',').
+                    append(oursOffset).append(',').append(oursLength).append(',').
+                    append(theirsOffset).append(',').append(theirsLength).append(' ');
+            }
+
+            public void reset() {
+                regions.setLength(0);
+            }
+        };
+        String ours = "a\nb\nc\nx\nd\ne\nf\n";
+        String theirs = "b\nc\nd\nE\nf\n";
+        DiffMerge.mergeLines(base, ours, theirs, recorder);
+        assertEquals("T:0,1,0,1,0,0 U:1,2,1,2,0,2 O:3,0,3,1,2,0 U:3,1,4,1,2,1 T:4,1,5,1,3,1 U:5,1,6,1,4,1 ",
+            regions.toString());
+
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            String expected = regions.toString();
+            DiffMerge.mergeLines(base, ours, theirs, recorder, new MyersDiffEngine(), pool);
+            assertEquals(expected, regions.toString());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public void testUnifiedDiff() throws Exception {
+        String source = "a\nb\nc\nd\ne\nf\ng\nh\ni\nj\nk\nl";
+        String target = "a\nB\nc\nd\ne\nf\ng\nh\ni\nk\nl\nm\n";
+        String[] x = Strings.lines(source);
+        String[] y = Strings.lines(target);
+        StringWriter output = new StringWriter();
+        UnifiedDiffWriter writer = new UnifiedDiffWriter(output);
+        writer.setContext(2);
+        writer.write("a.txt", "b.txt", x, y, DiffAlgorithm.compare(x, y, true));
+        assertEquals("--- a.txt\n+++ b.txt\n" +
+            "@@ -1,4 +1,4 @@\n a\n-b\n+B\n c\n d\n" +
+            "@@ -8,5 +8,5 @@\n h\n i\n-j\n k\n-l\n\\ No newline at end of file\n+l\n+m\n",
+            output.toString());
+
+        Patch patch = Patch.parse(output.toString());
+        assertEquals(2, patch.getHunkCount());
+        assertEquals(target, patch.apply(source));
+        assertTrue(Arrays.equals(y, patch.apply(x)));
+        try {
+            patch.apply(target);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Hunk #1 doesn't match source at line 2", e.getMessage());
+        }
+
+        Random random = new Random(239);
+        for (int i = 0; i < 200; i++) {
+            source = DiffAlgorithmTest.randomString(random, random.nextInt(60), 5).replace('a', '\n');
+            target = DiffAlgorithmTest.randomString(random, random.nextInt(60), 5).replace('a', '\n');
+            x = Strings.lines(source);
+            y = Strings.lines(target);
+            output = new StringWriter();
+            writer = new UnifiedDiffWriter(output);
+            writer.setContext(random.nextInt(4));
+            writer.write("a", "b", x, y, DiffAlgorithm.compare(x, y, true));
+            patch = Patch.parse(output.toString());
+            assertEquals(output.toString(), target, patch.apply(source));
+        }
+    }
+
+    public void testCompareFiles() throws Exception {
+        String source = "aaa\r\n\r\nbbb\r\nccc «1»\r\n\r\nddd\r\n\r\neee\r\nfff\r\nggg\r\n";
+        String target = "aaa\r\n\r\nzzz\r\nbbb\r\n\r\nxxx\r\nddd «2»\r\n\r\nfff\r\nggg\r\nhhh";
+        StringBuilderDiffMarker<String> expected = createIncrementalMarker();
+        DiffMarkup.compareLines(source, target, expected);
+
+        Path sourceFile = Files.createTempFile("source", ".txt");
+        Path targetFile = Files.createTempFile("target", ".txt");
+        try {
+            String[] charsets = {"UTF-8", "UTF-16"};
+            for (String name : charsets) {
+                Charset charset = Charset.forName(name);
+                Files.write(sourceFile, source.getBytes(charset));
+                Files.write(targetFile, target.getBytes(charset));
+                StringBuilderDiffMarker<String> marker = createIncrementalMarker();
+                DiffMarkup.compareFiles(sourceFile, targetFile, charset, marker);
+                assertEquals(expected.getSourceResult(), marker.getSourceResult());
+                assertEquals(expected.getTargetResult(), marker.getTargetResult());
+            }
+
+            // Lines are not split between mapped segments
+            Charset charset = Charset.forName("UTF-8");
+            Files.write(sourceFile, source.getBytes(charset));
+            Files.write(targetFile, target.getBytes(charset));
+            StringBuilderDiffMarker<String> marker = createIncrementalMarker();
+            DiffMarkup.compareFiles(sourceFile, targetFile, charset, marker, null, null, 13);
+            assertEquals(expected.getSourceResult(), marker.getSourceResult());
+            assertEquals(expected.getTargetResult(), marker.getTargetResult());
+            try {
+                DiffMarkup.compareFiles(sourceFile, targetFile, charset, createStringMarker(), null, null, 4);
+                fail();
+            } catch (IOException e) {
+                // Line is longer than segment
+            }
+
+            // Nodes are split by line, so decorators see the same neighbours as in compareLines
+            String[][] cases = {
+                {source, target},
+                {"a\nb\nc\nd\n", "a\nX\nY\nd\n"},
+                {"a\nb\nc\nd\ne\n", "a\nX\ne\n"},
+            };
+            for (String[] c : cases) {
+                expected = new StringDiffMarker(createTableDecorator());
+                DiffMarkup.compareLines(c[0], c[1], expected);
+                Files.write(sourceFile, c[0].getBytes(charset));
+                Files.write(targetFile, c[1].getBytes(charset));
+                marker = new StringDiffMarker(createTableDecorator());
+                DiffMarkup.compareFiles(sourceFile, targetFile, charset, marker);
+                assertEquals(expected.getSourceResult(), marker.getSourceResult());
+                assertEquals(expected.getTargetResult(), marker.getTargetResult());
+            }
+        } finally {
+            Files.delete(sourceFile);
+            Files.delete(targetFile);
+        }
+    }
+
+    public void testTreeDiff() throws Exception {
+        Path source = Files.createTempDirectory("source");
+        Path target = Files.createTempDirectory("target");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Files.createDirectories(source.resolve("b/c"));
+            Files.createDirectories(target.resolve("b/c"));
+            Files.write(source.resolve("a.txt"), "same\n".getBytes("UTF-8"));
+            Files.write(target.resolve("a.txt"), "same\n".getBytes("UTF-8"));
+            Files.write(source.resolve("b/c/d.txt"), "aaa\nbbb\nccc\n".getBytes("UTF-8"));
+            Files.write(target.resolve("b/c/d.txt"), "aaa\nbbb\nddd\n".getBytes("UTF-8"));
+            Files.write(source.resolve("b/e.bin"), new byte[]{1, 0, 2});
+            Files.write(target.resolve("b/e.bin"), new byte[]{1, 0, 3});
+            Files.write(source.resolve("old.txt"), "old\n".getBytes("UTF-8"));
+            Files.write(target.resolve("new.txt"), "new\n".getBytes("UTF-8"));
+
+            final List<String> results = new ArrayList<String>();
+            TreeDiff diff = new TreeDiff(executor);
+            diff.setMaxPending(1);
+            diff.compare(source, target, new TreeDiff.Listener() {
+                public void compared(TreeDiff.Result result) {
+                    results.add(result.getPath() + " " + result.getStatus() +
+                        (result.isBinary() ? " binary" : "") +
+                        (result.getScript() != null ? " " + result.getScript() : ""));
+                }
+            });
+            assertEquals(Arrays.asList(
+                "a.txt IDENTICAL",
+                "b/c/d.txt CHANGED U:0,0,2 R:2,2,1 A:3,2,1",
+                "b/e.bin CHANGED binary",
+                "new.txt ADDED",
+                "old.txt REMOVED"), results);
+
+            // Pending comparisons are cancelled if listener fails
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            ExecutorService recorder = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>()) {
+                @Override
+                protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+                    RunnableFuture<T> future = super.newTaskFor(callable);
+                    futures.add(future);
+                    return future;
+                }
+            };
+            try {
+                diff = new TreeDiff(recorder);
+                diff.setMaxPending(4);
+                diff.compare(source, target, new TreeDiff.Listener() {
+                    public void compared(TreeDiff.Result result) {
+                        throw new IllegalStateException(result.getPath());
+                    }
+                });
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("a.txt", e.getMessage());
+                for (Future<?> future : futures) {
+                    assertTrue(future.isDone());
+                }
+            } finally {
+                recorder.shutdown();
+            }
+            try {
+                diff.setMaxPending(0);
+                fail();
+            } catch (IllegalArgumentException e) {
+                // At least one file is pending
+            }
+        } finally {
+            executor.shutdown();
+            delete(source);
+            delete(target);
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            DirectoryStream<Path> children = Files.newDirectoryStream(path);
+            try {
+                for (Path child : children) {
+                    delete(child);
+                }
+            } finally {
+                children.close();
+            }
+        }
+        Files.delete(path);
+    }
+
+    public void testCompareComplexLinesPatienceAndHistogram() {
+        DiffEngine[] engines = {new PatienceDiffEngine(), new HistogramDiffEngine()};
+        for (DiffEngine engine : engines) {
+            StringBuilderDiffMarker<String> marker = createStringMarker();
+            DiffMarkup.compareLines(
+                "aaa\n\nbbb\nccc\n\nddd\n\neee\nfff\nggg\n",
+                "aaa\n\nzzz\nbbb\n\nxxx\nddd\n\nfff\nggg\nhhh\n", marker, engine);
+            assertEquals("aaa\n" +
+                "\n" +
+                "bbb\n" +
+                "-ccc\n-" +
+                "\n" +
+                "ddd\n" +
+                "\n" +
+                "-eee\n-" +
+                "fff\n" +
+                "ggg\n", marker.getSourceResult());
+            assertEquals("aaa\n" +
+                "\n" +
+                "+zzz\n+" +
+                "bbb\n" +
+                "\n" +
+                "+xxx\n+" +
+                "ddd\n" +
+                "\n" +
+                "fff\n" +
+                "ggg\n" +
+                "+hhh\n+", marker.getTargetResult());
+        }
+    }
+
     public void testOneLineToTwoLines() {
         StringBuilderDiffMarker<String> marker = createIncrementalMarker();
         DiffMarkup.compareLines(
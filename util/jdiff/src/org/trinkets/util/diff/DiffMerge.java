@@ -0,0 +1,229 @@
+package org.trinkets.util.diff;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Three-way merge. Ours and theirs lists are compared with base, then changes of both scripts are walked
+ * in order of base in linear time. Changes which overlap or touch in base are grouped into one region, and
+ * region is a conflict if it is changed by both sides differently.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.MergeMarker
+ */
+public final class DiffMerge {
+    /**
+     * Type of merge region.
+     */
+    public static enum Type {
+        /**
+         * Region is not changed
+         */
+        UNCHANGED,
+        /**
+         * Region is changed only in ours list
+         */
+        OURS,
+        /**
+         * Region is changed only in theirs list
+         */
+        THEIRS,
+        /**
+         * Region is changed equally in both lists
+         */
+        BOTH,
+        /**
+         * Region is changed differently in both lists
+         */
+        CONFLICT
+    }
+
+    private DiffMerge() {
+    }
+
+    public static <T> void merge(T[] base, T[] ours, T[] theirs, MergeMarker<T> marker) {
+        merge(base, ours, theirs, marker, DiffAlgorithm.DEFAULT_ENGINE, null);
+    }
+
+    /**
+     * Merge lists.
+     *
+     * @param base   Base list
+     * @param ours   Ours list
+     * @param theirs Theirs list
+     * @param marker Marker of regions
+     * @param engine Diff engine
+     * @param pool   Pool to compare theirs list with base in parallel with ours one,
+     *               if <code>null</code> then lists are compared sequentially
+     */
+    public static <T> void merge(T[] base, T[] ours, T[] theirs, MergeMarker<T> marker,
+                                 DiffEngine engine, ForkJoinPool pool) {
+        TokenInterner<T> interner = new TokenInterner<T>(base.length + ours.length + theirs.length);
+        int[] baseIds = interner.intern(base, 0, base.length);
+        int[] oursIds = interner.intern(ours, 0, ours.length);
+        int[] theirsIds = interner.intern(theirs, 0, theirs.length);
+
+        EditScript oursScript;
+        EditScript theirsScript;
+        if (pool != null) {
+            ScriptTask task = new ScriptTask(baseIds, theirsIds, engine);
+            ForkJoinTask<EditScript> theirsTask = ForkJoinTask.inForkJoinPool() ? task.fork() : pool.submit(task);
+            oursScript = DiffAlgorithm.script(baseIds, oursIds, true, engine);
+            theirsScript = theirsTask.join();
+        } else {
+            oursScript = DiffAlgorithm.script(baseIds, oursIds, true, engine);
+            theirsScript = DiffAlgorithm.script(baseIds, theirsIds, true, engine);
+        }
+
+        marker.reset();
+        int[] oursHunks = hunks(oursScript);
+        int[] theirsHunks = hunks(theirsScript);
+        int oursCount = oursHunks.length / 3;
+        int theirsCount = theirsHunks.length / 3;
+        int i = 0;
+        int j = 0;
+        // Offset of ours and theirs lists minus offset of base after processed hunks
+        int oursDelta = 0;
+        int theirsDelta = 0;
+        int baseOffset = 0;
+        while (i < oursCount || j < theirsCount) {
+            // Group starts from hunk with smaller start in base
+            boolean oursFirst = j == theirsCount || i < oursCount && oursHunks[i * 3] <= theirsHunks[j * 3];
+            int start = oursFirst ? oursHunks[i * 3] : theirsHunks[j * 3];
+            int end = start;
+            int oursStart = start + oursDelta;
+            int theirsStart = start + theirsDelta;
+            boolean oursChanged = false;
+            boolean theirsChanged = false;
+            boolean grown = true;
+            while (grown) {
+                grown = false;
+                if (i < oursCount && oursHunks[i * 3] <= end) {
+                    end = Math.max(end, oursHunks[i * 3 + 1]);
+                    oursDelta += oursHunks[i * 3 + 2] - (oursHunks[i * 3 + 1] - oursHunks[i * 3]);
+                    oursChanged = true;
+                    grown = true;
+                    i++;
+                }
+                if (j < theirsCount && theirsHunks[j * 3] <= end) {
+                    end = Math.max(end, theirsHunks[j * 3 + 1]);
+                    theirsDelta += theirsHunks[j * 3 + 2] - (theirsHunks[j * 3 + 1] - theirsHunks[j * 3]);
+                    theirsChanged = true;
+                    grown = true;
+                    j++;
+                }
+            }
+            int oursEnd = end + oursDelta;
+            int theirsEnd = end + theirsDelta;
+
+            int unchanged = start - baseOffset;
+            if (unchanged > 0) {
+                marker.apply(Type.UNCHANGED, base, baseOffset, unchanged,
+                    ours, oursStart - unchanged, unchanged, theirs, theirsStart - unchanged, unchanged);
+            }
+            Type type;
+            if (!theirsChanged) {
+                type = Type.OURS;
+            } else if (!oursChanged) {
+                type = Type.THEIRS;
+            } else if (equals(oursIds, oursStart, oursEnd, theirsIds, theirsStart, theirsEnd)) {
+                type = Type.BOTH;
+            } else {
+                type = Type.CONFLICT;
+            }
+            marker.apply(type, base, start, end - start,
+                ours, oursStart, oursEnd - oursStart, theirs, theirsStart, theirsEnd - theirsStart);
+            baseOffset = end;
+        }
+        int unchanged = base.length - baseOffset;
+        if (unchanged > 0) {
+            marker.apply(Type.UNCHANGED, base, baseOffset, unchanged,
+                ours, baseOffset + oursDelta, unchanged, theirs, baseOffset + theirsDelta, unchanged);
+        }
+    }
+
+    public static void mergeLines(String base, String ours, String theirs, MergeMarker<String> marker) {
+        merge(Strings.lines(base), Strings.lines(ours), Strings.lines(theirs), marker);
+    }
+
+    /**
+     * Merge lines.
+     *
+     * @param base   Base text
+     * @param ours   Ours text
+     * @param theirs Theirs text
+     * @param marker Marker of regions
+     * @param engine Diff engine
+     * @param pool   Pool to compare texts in parallel, if <code>null</code> then texts are compared sequentially
+     */
+    public static void mergeLines(String base, String ours, String theirs, MergeMarker<String> marker,
+                                  DiffEngine engine, ForkJoinPool pool) {
+        merge(Strings.lines(base), Strings.lines(ours), Strings.lines(theirs), marker, engine, pool);
+    }
+
+    /**
+     * Collect changes of script. Each change is start and end in base, followed by length in other list.
+     *
+     * @param script Script of base and other list
+     * @return Changes
+     */
+    private static int[] hunks(EditScript script) {
+        int[] hunks = new int[script.size() * 3];
+        int count = 0;
+        int i = 0;
+        while (i < script.size()) {
+            if (DiffNode.Type.UNCHANGED.equals(script.getType(i))) {
+                i++;
+                continue;
+            }
+            int start = script.getSourceOffset(i);
+            int otherStart = script.getTargetOffset(i);
+            while (i < script.size() && !DiffNode.Type.UNCHANGED.equals(script.getType(i))) {
+                i++;
+            }
+            int end = i < script.size() ? script.getSourceOffset(i) : script.getSourceLength();
+            int otherEnd = i < script.size() ? script.getTargetOffset(i) : script.getTargetLength();
+            hunks[count++] = start;
+            hunks[count++] = end;
+            hunks[count++] = otherEnd - otherStart;
+        }
+        int[] result = new int[count];
+        System.arraycopy(hunks, 0, result, 0, count);
+        return result;
+    }
+
+    private static boolean equals(int[] x, int xStart, int xEnd, int[] y, int yStart, int yEnd) {
+        if (xEnd - xStart != yEnd - yStart) {
+            return false;
+        }
+        for (int i = 0; i < xEnd - xStart; i++) {
+            if (x[xStart + i] != y[yStart + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Task to compare list with base.
+     */
+    private static final class ScriptTask extends RecursiveTask<EditScript> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] base;
+        private final int[] other;
+        private final DiffEngine engine;
+
+        private ScriptTask(int[] base, int[] other, DiffEngine engine) {
+            this.base = base;
+            this.other = other;
+            this.engine = engine;
+        }
+
+        @Override
+        protected EditScript compute() {
+            return DiffAlgorithm.script(base, other, true, engine);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.trinkets.util.diff;
+
+/**
+ * Listener of metrics of comparison. Metrics are reported by {@link org.trinkets.util.diff.DiffMarkup} and
+ * {@link org.trinkets.util.diff.DiffAlgorithm} during each comparison, so it is possible to see which phase
+ * makes comparison slow. Metrics are optional, and by default they are <code>null</code>, so time is not measured
+ * at all and comparison has no overhead.
+ * Each phase is reported at most once per comparison. Phases which are not run are not reported, for example
+ * {@link Phase#INTERN}, {@link Phase#DIFF} and {@link Phase#SPLIT} are not reported if diff is found in cache.
+ * Metrics can be called from several threads at once.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.AggregatingDiffMetrics
+ * @see org.trinkets.util.diff.EditScript#getMetrics()
+ */
+public interface DiffMetrics {
+    /**
+     * Report wall time of phase.
+     *
+     * @param phase Phase
+     * @param nanos Time in nanoseconds
+     */
+    void phase(Phase phase, long nanos);
+
+    /**
+     * Report count of compared tokens.
+     *
+     * @param sourceCount Count of source tokens
+     * @param targetCount Count of target tokens
+     */
+    void tokens(int sourceCount, int targetCount);
+
+    /**
+     * Report count of cells of filled LCS matrix.
+     *
+     * @param count Count of cells
+     */
+    void cells(long count);
+
+    /**
+     * Report edit distance of script, it is count of removed and added tokens.
+     *
+     * @param distance Edit distance
+     */
+    void editDistance(long distance);
+
+    /**
+     * Report count of {@link org.trinkets.util.diff.DiffNode}s passed to marker.
+     *
+     * @param count Count of nodes
+     */
+    void nodes(int count);
+
+    /**
+     * Phase of comparison.
+     */
+    public static enum Phase {
+        /**
+         * Split of text to lines or words
+         */
+        TOKENIZE,
+        /**
+         * Lookup of diff in cache and putting of diff into cache
+         */
+        CACHE,
+        /**
+         * Mapping of tokens to ids
+         */
+        INTERN,
+        /**
+         * Diff engine, it includes {@link #LCS_FILL} and {@link #BACKTRACK} if engine uses LCS matrix
+         */
+        DIFF,
+        /**
+         * Filling of LCS matrix, it is total time of all ranges which engine compared by LCS matrix
+         */
+        LCS_FILL,
+        /**
+         * Reading of diff from LCS matrix, it is total time of all ranges which engine compared by LCS matrix
+         */
+        BACKTRACK,
+        /**
+         * Split of changed nodes
+         */
+        SPLIT,
+        /**
+         * Markup of nodes by marker
+         */
+        MARKUP
+    }
+}
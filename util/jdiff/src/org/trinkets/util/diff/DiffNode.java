@@ -112,17 +112,22 @@ public class DiffNode {
         return placeholder;
     }
 
+    /**
+     * Replace node and its opposite by nodes of given length. If node and opposite have different lengths,
+     * then parts of shorter one past its end are {@link Type#VIRTUAL}.
+     *
+     * @param l Length of parts
+     * @return Node before replaced one, or next node if there is no previous
+     */
     public DiffNode splitByLength(int l) {
-        int oldLength = Type.VIRTUAL.equals(type) ? getOpposite().getLength() : length;
-        int newLength = Type.VIRTUAL.equals(type) ? 0 : l;
-
+        int ownLength = Type.VIRTUAL.equals(type) ? 0 : length;
         Type oppositeType = hasOpposite() ? opposite.getType() : null;
-        int oppositeLength = Type.VIRTUAL.equals(oppositeType) ? 0 : l;
+        int oppositeLength = oppositeType != null && !Type.VIRTUAL.equals(oppositeType) ? opposite.getLength() : 0;
 
-        for (int i = 0; i < oldLength / l; i++) {
-            DiffNode newNode = new DiffNode(type, newLength);
+        for (int offset = 0; offset < Math.max(ownLength, oppositeLength); offset += l) {
+            DiffNode newNode = part(type, ownLength, offset, l);
             if (oppositeType != null) {
-                newNode.setOpposite(new DiffNode(oppositeType, oppositeLength));
+                newNode.setOpposite(part(oppositeType, oppositeLength, offset, l));
             }
             insertBefore(newNode);
             if (hasOpposite() && newNode.hasOpposite()) {
@@ -133,6 +138,11 @@ public class DiffNode {
         return remove();
     }
 
+    private static DiffNode part(Type type, int length, int offset, int l) {
+        int partLength = Math.min(l, length - offset);
+        return partLength > 0 ? new DiffNode(type, partLength) : new DiffNode(Type.VIRTUAL, 0);
+    }
+
     public Type getType() {
         return type;
     }
@@ -162,17 +172,41 @@ public class DiffNode {
     }
 
     public DiffNode getFirst() {
-        return hasPrevious() ? previous.getFirst() : this;
+        DiffNode first = this;
+        while (first.hasPrevious()) {
+            first = first.previous;
+        }
+        return first;
     }
 
     public DiffNode getLast() {
-        return hasNext() ? next.getLast() : this;
+        DiffNode last = this;
+        while (last.hasNext()) {
+            last = last.next;
+        }
+        return last;
     }
 
+    /**
+     * Return offset of node. Offset is sum of lengths of previous nodes, so it takes O(n) time.
+     *
+     * @return Offset of node
+     * @deprecated Walk through sequence should track offsets itself, or use
+     *             {@link org.trinkets.util.diff.EditScript#getSourceOffset(int)} and
+     *             {@link org.trinkets.util.diff.EditScript#getTargetOffset(int)}, which take O(1) time.
+     */
+    @Deprecated
     public int getOffset() {
-        return hasPrevious() ? previous.getOffset() + previous.getLength() : 0;
+        int offset = 0;
+        for (DiffNode node = this; node.hasPrevious(); node = node.previous) {
+            offset += node.previous.getLength();
+        }
+        return offset;
     }
 
+    /**
+     * Node as <code>type:length->type:length</code>. Offset is not included, because it takes O(n) time.
+     */
     @Override
     public String toString() {
         return toStringWithoutOpposite() + (hasOpposite() ? "->" + opposite.toStringWithoutOpposite() : "");
@@ -182,8 +216,6 @@ public class DiffNode {
         StringBuilder builder = new StringBuilder();
         builder.append(type.name().charAt(0));
         builder.append(":");
-        builder.append(getOffset());
-        builder.append(",");
         builder.append(length);
         return builder.toString();
     }
@@ -0,0 +1,232 @@
+package org.trinkets.util.diff;
+
+/**
+ * Incremental diff of lines. Session keeps ids of source and target lines and edit script of them.
+ * When target is edited, only lines touched by edit are indexed again, and only the changed range of script
+ * around them is compared again, so diff work of edit depends on size of edit and of changes near it,
+ * but not on size of document. Bookkeeping of edit is still linear in size of document: ids and offsets of
+ * lines after edit are moved by {@link System#arraycopy(Object, int, Object, int, int)}, target text is
+ * changed in place and instructions of script after edit are shifted. These are plain array copies,
+ * which are much cheaper than comparison.
+ * <p/>
+ * Ids of lines are interned by the session. Interner is rebuilt from current lines when it holds
+ * much more lines than source and target, so removed versions of lines are not kept forever.
+ * <p/>
+ * Result of session can differ from comparison of whole texts, because changes are not aligned across
+ * unchanged lines around edit, but it is always a valid diff of source and current target.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.DiffMarkup#compareLines(String, String, DiffMarker, DiffEngine)
+ */
+public class DiffSession {
+    private final String source;
+    private final StringBuilder target;
+    private final DiffEngine engine;
+    private final String[] sourceLines;
+    private TokenInterner<String> interner;
+    private int[] sourceIds;
+    /**
+     * Ids of target lines, array has the same capacity as {@link #targetBounds}
+     */
+    private int[] targetIds;
+    /**
+     * Offsets of target lines, followed by length of target
+     */
+    private int[] targetBounds;
+    private int targetCount;
+    private final EditScript script;
+
+    public DiffSession(String source, String target) {
+        this(source, target, DiffAlgorithm.DEFAULT_ENGINE);
+    }
+
+    /**
+     * Create session and compare lines of texts.
+     *
+     * @param source Source text
+     * @param target Target text, it is changed by edits
+     * @param engine Diff engine
+     */
+    public DiffSession(String source, String target, DiffEngine engine) {
+        this.source = source;
+        this.target = new StringBuilder(target);
+        this.engine = engine;
+        this.sourceLines = Strings.lines(source);
+        LineIndex targetIndex = new LineIndex(target);
+        String[] targetLines = targetIndex.toArray();
+        this.interner = new TokenInterner<String>(sourceLines.length + targetLines.length);
+        this.sourceIds = interner.intern(sourceLines, 0, sourceLines.length);
+        int[] ids = interner.intern(targetLines, 0, targetLines.length);
+        this.targetBounds = targetIndex.getBounds();
+        this.targetIds = new int[targetBounds.length];
+        System.arraycopy(ids, 0, targetIds, 0, ids.length);
+        this.targetCount = targetLines.length;
+        this.script = DiffAlgorithm.script(sourceIds, ids, true, engine);
+    }
+
+    /**
+     * Replace text of target and update script.
+     *
+     * @param offset        Offset of edit in target
+     * @param removedLength Length of removed text
+     * @param insertedText  Inserted text
+     */
+    public void edit(int offset, int removedLength, CharSequence insertedText) {
+        if (offset < 0 || removedLength < 0 || offset + removedLength > target.length()) {
+            throw new IndexOutOfBoundsException("Edit " + offset + ".." + (offset + removedLength) +
+                " is out of target of length " + target.length());
+        }
+        // Lines touched by edit, the line before it is included too because edit can join its separator
+        int first = lineOf(offset);
+        if (first > 0 && offset == targetBounds[first]) {
+            first--;
+        }
+        int last = Math.min(lineOf(offset + removedLength) + 1, targetCount);
+        int start = targetBounds[first];
+        int delta = insertedText.length() - removedLength;
+        target.replace(offset, offset + removedLength, insertedText.toString());
+
+        LineIndex index = new LineIndex(target.subSequence(start, targetBounds[last] + delta));
+        String[] lines = index.toArray();
+        replaceLines(first, last, lines, index, start, delta);
+        if (interner.size() > 2 * (sourceIds.length + targetCount) + 16) {
+            rebuildInterner();
+        }
+        rediff(first, last, lines.length - (last - first));
+    }
+
+    /**
+     * Replace ids and offsets of target lines.
+     *
+     * @param first First replaced line
+     * @param last  Line after replaced lines
+     * @param lines New lines
+     * @param index Index of new lines
+     * @param start Offset of new lines in target
+     * @param delta Change of target length
+     */
+    private void replaceLines(int first, int last, String[] lines, LineIndex index, int start, int delta) {
+        int count = targetCount - (last - first) + lines.length;
+        if (count + 1 > targetBounds.length || count + 1 > targetIds.length) {
+            int capacity = Math.max(count + 1, targetBounds.length * 2);
+            int[] ids = new int[capacity];
+            int[] bounds = new int[capacity];
+            System.arraycopy(targetIds, 0, ids, 0, first);
+            System.arraycopy(targetBounds, 0, bounds, 0, first);
+            System.arraycopy(targetIds, last, ids, first + lines.length, targetCount - last);
+            System.arraycopy(targetBounds, last, bounds, first + lines.length, targetCount - last + 1);
+            targetIds = ids;
+            targetBounds = bounds;
+        } else {
+            System.arraycopy(targetIds, last, targetIds, first + lines.length, targetCount - last);
+            System.arraycopy(targetBounds, last, targetBounds, first + lines.length, targetCount - last + 1);
+        }
+        for (int i = 0; i < lines.length; i++) {
+            targetIds[first + i] = interner.intern(lines[i]);
+            targetBounds[first + i] = start + index.getOffset(i);
+        }
+        for (int i = first + lines.length; i <= count; i++) {
+            targetBounds[i] += delta;
+        }
+        targetCount = count;
+    }
+
+    /**
+     * Intern current lines by new interner, so ids of lines which are not in source and target anymore are dropped.
+     * Equal lines still have equal ids, so script stays valid.
+     */
+    private void rebuildInterner() {
+        interner = new TokenInterner<String>(sourceLines.length + targetCount);
+        sourceIds = interner.intern(sourceLines, 0, sourceLines.length);
+        for (int i = 0; i < targetCount; i++) {
+            targetIds[i] = interner.intern(target.substring(targetBounds[i], targetBounds[i + 1]));
+        }
+    }
+
+    /**
+     * Compare again range of script which covers replaced lines. Range is extended to changes around lines,
+     * and it starts and ends in unchanged lines.
+     *
+     * @param first First replaced line
+     * @param last  Line after replaced lines, before edit
+     * @param delta Change of count of lines
+     */
+    private void rediff(int first, int last, int delta) {
+        int size = script.size();
+        int start = script.indexOfTarget(first);
+        int startLength;
+        if (start >= 0 && DiffNode.Type.UNCHANGED.equals(script.getType(start))) {
+            startLength = Math.min(first - script.getTargetOffset(start), script.getLength(start));
+        } else {
+            while (start >= 0 && !DiffNode.Type.UNCHANGED.equals(script.getType(start))) {
+                start--;
+            }
+            startLength = start >= 0 ? script.getLength(start) : 0;
+            start = Math.max(start, 0);
+        }
+        int end = start;
+        while (end < size &&
+            !(DiffNode.Type.UNCHANGED.equals(script.getType(end)) &&
+                script.getTargetOffset(end) + script.getLength(end) > last)) {
+            end++;
+        }
+        int endSkip = end < size ? Math.max(last - script.getTargetOffset(end), 0) : 0;
+
+        int sourceStart = start < size ? script.getSourceOffset(start) + startLength : script.getSourceLength();
+        int targetStart = start < size ? script.getTargetOffset(start) + startLength : script.getTargetLength();
+        int sourceEnd = end < size ? script.getSourceOffset(end) + endSkip : script.getSourceLength();
+        int targetEnd = (end < size ? script.getTargetOffset(end) + endSkip : script.getTargetLength()) + delta;
+
+        EditScript replacement = new EditScript();
+        engine.diff(sourceIds, sourceStart, sourceEnd - sourceStart, targetIds, targetStart, targetEnd - targetStart,
+            replacement);
+        script.replace(start, startLength, end, endSkip, replacement);
+    }
+
+    /**
+     * Find line which contains offset.
+     *
+     * @param offset Offset in target
+     * @return Line or zero if target is empty
+     */
+    private int lineOf(int offset) {
+        int low = 0;
+        int high = targetCount - 1;
+        int result = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (targetBounds[middle] <= offset) {
+                result = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return Current target text
+     */
+    public CharSequence getTarget() {
+        return target;
+    }
+
+    /**
+     * @return Count of lines in current target
+     */
+    public int getTargetLineCount() {
+        return targetCount;
+    }
+
+    /**
+     * @return Script of source lines and current target lines, it is updated in place by edits
+     */
+    public EditScript getScript() {
+        return script;
+    }
+}
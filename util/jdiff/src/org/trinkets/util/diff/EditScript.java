@@ -0,0 +1,480 @@
+package org.trinkets.util.diff;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Compact edit script. Script is a flat list of instructions stored in parallel int arrays of type,
+ * source offset, target offset and length, so offset of any instruction is available in O(1).
+ * <p/>
+ * Diff engines append instructions of types {@link org.trinkets.util.diff.DiffNode.Type#UNCHANGED},
+ * {@link org.trinkets.util.diff.DiffNode.Type#REMOVED} and {@link org.trinkets.util.diff.DiffNode.Type#ADDED}.
+ * Instructions with the same type are merged, and changes between unchanged ranges are kept as
+ * {@link org.trinkets.util.diff.DiffNode.Type#REMOVED} instruction followed by
+ * {@link org.trinkets.util.diff.DiffNode.Type#ADDED} instruction.
+ * <p/>
+ * Sequence of {@link org.trinkets.util.diff.DiffNode}s is a view of script, where
+ * {@link org.trinkets.util.diff.DiffNode.Type#REMOVED} followed by {@link org.trinkets.util.diff.DiffNode.Type#ADDED}
+ * is one node with opposite, and other changes have {@link org.trinkets.util.diff.DiffNode.Type#VIRTUAL} opposites.
+ * Script also can be built from sequence of nodes, then pairs of nodes are kept as is with zero-length
+ * {@link org.trinkets.util.diff.DiffNode.Type#VIRTUAL} instructions.
+ *
+ * @author Alexey Efimov
+ * @see #toDiffNode()
+ * @see #of(DiffNode)
+ */
+public final class EditScript implements Iterable<EditScript.Entry> {
+    private static final DiffNode.Type[] TYPES = DiffNode.Type.values();
+    private static final DiffMetrics.Phase[] PHASES = DiffMetrics.Phase.values();
+    private static final int UNCHANGED = DiffNode.Type.UNCHANGED.ordinal();
+    private static final int ADDED = DiffNode.Type.ADDED.ordinal();
+    private static final int REMOVED = DiffNode.Type.REMOVED.ordinal();
+    private static final int VIRTUAL = DiffNode.Type.VIRTUAL.ordinal();
+
+    private int[] types;
+    private int[] sourceOffsets;
+    private int[] targetOffsets;
+    private int[] lengths;
+    private int size = 0;
+    private int sourceLength = 0;
+    private int targetLength = 0;
+    private DiffBudget budget = null;
+    private DiffMetrics metrics = null;
+    /**
+     * Times of engine phases, they are accumulated over all ranges compared by engines while metrics are set
+     */
+    private long[] phaseTimes = null;
+    private long cells = 0;
+    private boolean truncated = false;
+
+    public EditScript() {
+        this(16);
+    }
+
+    public EditScript(int capacity) {
+        capacity = Math.max(capacity, 4);
+        types = new int[capacity];
+        sourceOffsets = new int[capacity];
+        targetOffsets = new int[capacity];
+        lengths = new int[capacity];
+    }
+
+    /**
+     * Append instruction. Instruction is merged with previous one if it has the same type, and
+     * {@link org.trinkets.util.diff.DiffNode.Type#REMOVED} instruction is moved before
+     * {@link org.trinkets.util.diff.DiffNode.Type#ADDED} one.
+     *
+     * @param type   Type of instruction
+     * @param length Length of instruction, instructions with zero length are ignored
+     */
+    public void append(DiffNode.Type type, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int t = type.ordinal();
+        if (size > 0 && types[size - 1] == t) {
+            lengths[size - 1] += length;
+        } else if (t == REMOVED && size > 0 && types[size - 1] == ADDED) {
+            if (size > 1 && types[size - 2] == REMOVED) {
+                lengths[size - 2] += length;
+            } else {
+                // Move added instruction after removed one
+                int added = lengths[size - 1];
+                types[size - 1] = REMOVED;
+                lengths[size - 1] = length;
+                add(ADDED, sourceLength, targetOffsets[size - 1], added);
+            }
+            sourceOffsets[size - 1] += length;
+        } else {
+            add(t, sourceLength, targetLength, length);
+        }
+        advance(t, length);
+    }
+
+    /**
+     * Append all instructions of other script.
+     *
+     * @param script Script
+     */
+    public void append(EditScript script) {
+        for (int i = 0; i < script.size; i++) {
+            append(TYPES[script.types[i]], script.lengths[i]);
+        }
+        truncated |= script.truncated;
+        if (script.phaseTimes != null) {
+            for (int i = 0; i < script.phaseTimes.length; i++) {
+                if (script.phaseTimes[i] >= 0) {
+                    addPhaseTime(PHASES[i], script.phaseTimes[i]);
+                }
+            }
+        }
+        cells += script.cells;
+    }
+
+    /**
+     * Replace part of script by other script. Part starts after <code>startLength</code> items of instruction
+     * <code>start</code> and ends after <code>endSkip</code> items of instruction <code>end</code>. Both instructions
+     * must be {@link org.trinkets.util.diff.DiffNode.Type#UNCHANGED} or be equal to {@link #size()}.
+     * Instructions after replaced part are appended again, so cost of replacement depends on count of
+     * instructions, but not on length of source and target.
+     *
+     * @param start       Index of first instruction of part
+     * @param startLength Count of items of first instruction which are kept before part
+     * @param end         Index of instruction after part
+     * @param endSkip     Count of items of instruction after part which are replaced
+     * @param replacement Script of part
+     */
+    void replace(int start, int startLength, int end, int endSkip, EditScript replacement) {
+        int tailSize = size - end;
+        int[] tailTypes = new int[tailSize];
+        int[] tailLengths = new int[tailSize];
+        System.arraycopy(types, end, tailTypes, 0, tailSize);
+        System.arraycopy(lengths, end, tailLengths, 0, tailSize);
+        if (tailSize > 0) {
+            tailLengths[0] -= endSkip;
+        }
+        if (start < size) {
+            int type = types[start];
+            sourceLength = sourceOffsets[start];
+            targetLength = targetOffsets[start];
+            size = start;
+            append(TYPES[type], startLength);
+        }
+        append(replacement);
+        for (int i = 0; i < tailSize; i++) {
+            append(TYPES[tailTypes[i]], tailLengths[i]);
+        }
+    }
+
+    /**
+     * @return Budget of engines which append to this script, or <code>null</code> if budget is not limited
+     */
+    public DiffBudget getBudget() {
+        return budget;
+    }
+
+    public void setBudget(DiffBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @return Metrics of engines which append to this script, or <code>null</code> if metrics are not collected
+     */
+    public DiffMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(DiffMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Add time of engine phase. Engines can pass several ranges to the same script, so times are accumulated
+     * and they are reported once per comparison by {@link #reportMetrics()}.
+     *
+     * @param phase Phase
+     * @param nanos Time in nanoseconds
+     */
+    void addPhaseTime(DiffMetrics.Phase phase, long nanos) {
+        if (phaseTimes == null) {
+            phaseTimes = new long[PHASES.length];
+            Arrays.fill(phaseTimes, -1);
+        }
+        phaseTimes[phase.ordinal()] = Math.max(phaseTimes[phase.ordinal()], 0) + nanos;
+    }
+
+    /**
+     * Add count of filled cells of LCS matrix.
+     *
+     * @param count Count of cells
+     */
+    void addCells(long count) {
+        cells += count;
+    }
+
+    /**
+     * Report accumulated times of engine phases and count of cells to metrics, and reset them.
+     */
+    void reportMetrics() {
+        if (metrics != null && phaseTimes != null) {
+            for (int i = 0; i < phaseTimes.length; i++) {
+                if (phaseTimes[i] >= 0) {
+                    metrics.phase(PHASES[i], phaseTimes[i]);
+                }
+            }
+        }
+        if (metrics != null && cells > 0) {
+            metrics.cells(cells);
+        }
+        phaseTimes = null;
+        cells = 0;
+    }
+
+    /**
+     * @return <code>true</code> if budget was exhausted and script is coarser than engine result
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+
+    private void add(int type, int sourceOffset, int targetOffset, int length) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = copyOf(types, capacity);
+            sourceOffsets = copyOf(sourceOffsets, capacity);
+            targetOffsets = copyOf(targetOffsets, capacity);
+            lengths = copyOf(lengths, capacity);
+        }
+        types[size] = type;
+        sourceOffsets[size] = sourceOffset;
+        targetOffsets[size] = targetOffset;
+        lengths[size] = length;
+        size++;
+    }
+
+    private void advance(int type, int length) {
+        if (type == UNCHANGED || type == REMOVED) {
+            sourceLength += length;
+        }
+        if (type == UNCHANGED || type == ADDED) {
+            targetLength += length;
+        }
+    }
+
+    private void add(int type, int length) {
+        add(type, sourceLength, targetLength, length);
+        advance(type, length);
+    }
+
+    /**
+     * @return Count of instructions which script can hold without growing
+     */
+    int getCapacity() {
+        return types.length;
+    }
+
+    /**
+     * Shrink arrays of script to its size.
+     */
+    void trimToSize() {
+        int capacity = Math.max(size, 4);
+        if (capacity < types.length) {
+            types = copyOf(types, capacity);
+            sourceOffsets = copyOf(sourceOffsets, capacity);
+            targetOffsets = copyOf(targetOffsets, capacity);
+            lengths = copyOf(lengths, capacity);
+        }
+    }
+
+    private static int[] copyOf(int[] array, int length) {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+        return copy;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public DiffNode.Type getType(int index) {
+        return TYPES[types[index]];
+    }
+
+    public int getSourceOffset(int index) {
+        return sourceOffsets[index];
+    }
+
+    public int getTargetOffset(int index) {
+        return targetOffsets[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    /**
+     * @return Length of source covered by script
+     */
+    public int getSourceLength() {
+        return sourceLength;
+    }
+
+    /**
+     * @return Length of target covered by script
+     */
+    public int getTargetLength() {
+        return targetLength;
+    }
+
+    /**
+     * Find instruction which covers source offset.
+     *
+     * @param offset Offset in source
+     * @return Index of the last instruction with source offset less or equal to given offset, or -1 if script is empty.
+     */
+    public int indexOfSource(int offset) {
+        return indexOf(sourceOffsets, offset);
+    }
+
+    /**
+     * Find instruction which covers target offset.
+     *
+     * @param offset Offset in target
+     * @return Index of the last instruction with target offset less or equal to given offset, or -1 if script is empty.
+     */
+    public int indexOfTarget(int offset) {
+        return indexOf(targetOffsets, offset);
+    }
+
+    private int indexOf(int[] offsets, int offset) {
+        int low = 0;
+        int high = size - 1;
+        int result = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (offsets[middle] <= offset) {
+                result = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return result;
+    }
+
+    public Iterator<Entry> iterator() {
+        return new Iterator<Entry>() {
+            private int index = 0;
+
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            public Entry next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return new Entry(index++);
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Build sequence of {@link org.trinkets.util.diff.DiffNode}s with opposites.
+     *
+     * @return First node or <code>null</code> if script is empty.
+     */
+    public DiffNode toDiffNode() {
+        DiffNode first = null;
+        DiffNode last = null;
+        int i = 0;
+        while (i < size) {
+            int type = types[i];
+            int next = i + 1 < size ? types[i + 1] : -1;
+            DiffNode node;
+            if (type == UNCHANGED) {
+                node = new DiffNode(DiffNode.Type.UNCHANGED, lengths[i]);
+                node.setPrevious(last);
+                node.setOpposite(new DiffNode(DiffNode.Type.UNCHANGED, lengths[i]));
+                i++;
+            } else if (type == REMOVED && (next == ADDED || next == VIRTUAL) || type == VIRTUAL && next == ADDED) {
+                node = new DiffNode(TYPES[type], lengths[i]);
+                node.setPrevious(last);
+                node.setOpposite(new DiffNode(TYPES[next], lengths[i + 1]));
+                i += 2;
+            } else if (type == REMOVED) {
+                node = new DiffNode(DiffNode.Type.REMOVED, lengths[i]);
+                node.setPrevious(last);
+                node.setOpposite(new DiffNode(DiffNode.Type.VIRTUAL, 0));
+                i++;
+            } else {
+                node = new DiffNode(DiffNode.Type.VIRTUAL, 0);
+                node.setPrevious(last);
+                node.setOpposite(new DiffNode(DiffNode.Type.ADDED, lengths[i]));
+                i++;
+            }
+            if (first == null) {
+                first = node;
+            }
+            last = node;
+        }
+        return first;
+    }
+
+    /**
+     * Build script from sequence of {@link org.trinkets.util.diff.DiffNode}s with opposites. Nodes are not merged,
+     * so {@link #toDiffNode()} of built script returns the same sequence.
+     *
+     * @param node First node
+     * @return Script
+     */
+    public static EditScript of(DiffNode node) {
+        EditScript script = new EditScript();
+        while (node != null) {
+            DiffNode opposite = node.hasOpposite() ? node.getOpposite() : null;
+            int type = node.getType().ordinal();
+            script.add(type, type == VIRTUAL ? 0 : node.getLength());
+            if (type != UNCHANGED) {
+                int oppositeType = opposite != null ? opposite.getType().ordinal() : VIRTUAL;
+                script.add(oppositeType, oppositeType == VIRTUAL ? 0 : opposite.getLength());
+            }
+            node = node.getNext();
+        }
+        return script;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(TYPES[types[i]].name().charAt(0));
+            builder.append(':').append(sourceOffsets[i]);
+            builder.append(',').append(targetOffsets[i]);
+            builder.append(',').append(lengths[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Instruction of script.
+     */
+    public final class Entry {
+        private final int index;
+
+        private Entry(int index) {
+            this.index = index;
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        public DiffNode.Type getType() {
+            return EditScript.this.getType(index);
+        }
+
+        public int getSourceOffset() {
+            return EditScript.this.getSourceOffset(index);
+        }
+
+        public int getTargetOffset() {
+            return EditScript.this.getTargetOffset(index);
+        }
+
+        public int getLength() {
+            return EditScript.this.getLength(index);
+        }
+    }
+}
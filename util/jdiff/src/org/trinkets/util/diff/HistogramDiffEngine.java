@@ -0,0 +1,143 @@
+package org.trinkets.util.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Diff engine based on histogram diff algorithm, as it is implemented in JGit.
+ * <p/>
+ * Engine builds histogram of tokens in X range and finds common region which contains
+ * tokens with the lowest count of occurrences. The region is used as anchor, ranges before and after it
+ * are compared again. It is extension of patience diff which also works when there are no unique tokens.
+ * If all common tokens occur too often, then range is compared by fallback engine.
+ *
+ * @author Alexey Efimov
+ */
+public class HistogramDiffEngine implements DiffEngine {
+    private static final int DEFAULT_MAX_CHAIN_LENGTH = 64;
+
+    private final DiffEngine fallback;
+    private final int maxChainLength;
+
+    public HistogramDiffEngine() {
+        this(new MyersDiffEngine(), DEFAULT_MAX_CHAIN_LENGTH);
+    }
+
+    /**
+     * Create engine.
+     *
+     * @param fallback       Engine to compare ranges where all common tokens occur too often
+     * @param maxChainLength Maximal count of occurrences of token to be used as anchor
+     */
+    public HistogramDiffEngine(DiffEngine fallback, int maxChainLength) {
+        this.fallback = fallback;
+        this.maxChainLength = maxChainLength;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "(" + fallback + ", " + maxChainLength + ")";
+    }
+
+    public void diff(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength, EditScript script) {
+        // Stack of ranges {xStart, xEnd, yStart, yEnd} and unchanged lengths {length}
+        List<int[]> tasks = new ArrayList<int[]>();
+        tasks.add(new int[]{xOffset, xOffset + xLength, yOffset, yOffset + yLength});
+        while (!tasks.isEmpty()) {
+            int[] task = tasks.remove(tasks.size() - 1);
+            if (task.length == 1) {
+                script.append(DiffNode.Type.UNCHANGED, task[0]);
+            } else {
+                diff(x, task[0], task[1], y, task[2], task[3], script, tasks);
+            }
+        }
+    }
+
+    private void diff(int[] x, int xStart, int xEnd, int[] y, int yStart, int yEnd,
+                      EditScript script, List<int[]> tasks) {
+        if (xStart == xEnd || yStart == yEnd) {
+            script.append(DiffNode.Type.REMOVED, xEnd - xStart);
+            script.append(DiffNode.Type.ADDED, yEnd - yStart);
+            return;
+        }
+        Region region = new Region(x, xStart, xEnd, y, yStart, yEnd, maxChainLength);
+        if (region.length > 0) {
+            // Push in reverse order: after region, region, before region
+            tasks.add(new int[]{region.xStart + region.length, xEnd, region.yStart + region.length, yEnd});
+            tasks.add(new int[]{region.length});
+            tasks.add(new int[]{xStart, region.xStart, yStart, region.yStart});
+        } else if (region.common) {
+            fallback.diff(x, xStart, xEnd - xStart, y, yStart, yEnd - yStart, script);
+        } else {
+            script.append(DiffNode.Type.REMOVED, xEnd - xStart);
+            script.append(DiffNode.Type.ADDED, yEnd - yStart);
+        }
+    }
+
+    /**
+     * Longest common region with the lowest count of occurrences.
+     */
+    private static final class Region {
+        private int xStart;
+        private int yStart;
+        private int length = 0;
+        /**
+         * Is there any common token in ranges
+         */
+        private boolean common = false;
+
+        private Region(int[] x, int xStart, int xEnd, int[] y, int yStart, int yEnd, int maxChainLength) {
+            // Histogram of X range: counts of tokens and chains of positions from last to first
+            IdIndex index = new IdIndex(x, xStart, xEnd - xStart);
+            int[] counts = new int[index.size()];
+            int[] heads = new int[index.size()];
+            int[] next = new int[xEnd - xStart];
+            for (int i = xStart; i < xEnd; i++) {
+                int id = index.indexOf(x[i]);
+                next[i - xStart] = counts[id] > 0 ? heads[id] : -1;
+                heads[id] = i;
+                counts[id]++;
+            }
+
+            // Tokens which occur more than maxChainLength times are never used as anchor
+            int lowestCount = maxChainLength;
+            for (int j = yStart; j < yEnd;) {
+                int id = index.indexOf(y[j]);
+                int nextJ = j + 1;
+                if (id >= 0) {
+                    common = true;
+                    if (counts[id] <= lowestCount) {
+                        for (int i = heads[id]; i >= 0; i = next[i - xStart]) {
+                            // Expand region around match
+                            int regionCount = counts[id];
+                            int xs = i;
+                            int ys = j;
+                            while (xs > xStart && ys > yStart && x[xs - 1] == y[ys - 1]) {
+                                xs--;
+                                ys--;
+                                regionCount = Math.min(regionCount, counts[index.indexOf(x[xs])]);
+                            }
+                            int xe = i + 1;
+                            int ye = j + 1;
+                            while (xe < xEnd && ye < yEnd && x[xe] == y[ye]) {
+                                regionCount = Math.min(regionCount, counts[index.indexOf(x[xe])]);
+                                xe++;
+                                ye++;
+                            }
+                            if (nextJ < ye) {
+                                nextJ = ye;
+                            }
+                            if (length < xe - xs || regionCount < lowestCount) {
+                                this.xStart = xs;
+                                this.yStart = ys;
+                                this.length = xe - xs;
+                                lowestCount = regionCount;
+                            }
+                        }
+                    }
+                }
+                j = nextJ;
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.trinkets.util.diff;
+
+/**
+ * Index of distinct ids. Maps each distinct id to dense index 0..size()-1 in order of addition,
+ * so engines can keep per-token data in plain arrays.
+ *
+ * @author Alexey Efimov
+ */
+final class IdIndex {
+    private final int[] keys;
+    private final int[] indexes;
+    private final int mask;
+    private int size = 0;
+
+    /**
+     * Create index of all ids in given range.
+     *
+     * @param ids    Ids
+     * @param offset Start of range
+     * @param length Length of range
+     */
+    IdIndex(int[] ids, int offset, int length) {
+        int capacity = 16;
+        while (capacity < length * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        indexes = new int[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            indexes[i] = -1;
+        }
+        for (int i = 0; i < length; i++) {
+            add(ids[offset + i]);
+        }
+    }
+
+    private int add(int id) {
+        int slot = slot(id);
+        if (indexes[slot] < 0) {
+            keys[slot] = id;
+            indexes[slot] = size++;
+        }
+        return indexes[slot];
+    }
+
+    /**
+     * Return index of id.
+     *
+     * @param id Id
+     * @return Index or -1 if id is not in index.
+     */
+    public int indexOf(int id) {
+        return indexes[slot(id)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int slot(int id) {
+        int hash = id * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (indexes[slot] >= 0 && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -1,7 +1,8 @@
 package org.trinkets.util.diff;
 
 /**
- * Incremental marker.
+ * Incremental marker. Changed nodes are compared again by sub marker. Sub comparison is recorded with
+ * statistics only, and it is marked up by sub marker if changes are below threshold.
  *
  * @author Alexey Efimov
  */
@@ -9,6 +10,7 @@ public abstract class IncrementalDiffMarker<T> extends StringDiffMarker {
     private final double threshold;
     private final StringBuilderDiffMarker<T> subMarker;
     private final StatisticsDiffMarker<T> statsMarker;
+    private final RecordingDiffMarker<T> recorder;
 
     protected IncrementalDiffMarker(StringBuilderDiffMarker<T> subMarker, double threshold) {
         this(subMarker, threshold, subMarker.decorator);
@@ -18,19 +20,26 @@ public abstract class IncrementalDiffMarker<T> extends StringDiffMarker {
         super(decorator);
         this.threshold = threshold;
         this.subMarker = subMarker;
-        this.statsMarker = new StatisticsDiffMarker<T>(subMarker);
+        this.statsMarker = new StatisticsDiffMarker<T>(subMarker, false);
+        this.recorder = new RecordingDiffMarker<T>(statsMarker);
     }
 
     @Override
     protected void apply(DiffNode sourceNode, CharSequence source, DiffNode targetNode, CharSequence target) {
         if (DiffNode.Type.REMOVED.equals(sourceNode.getType()) && DiffNode.Type.ADDED.equals(targetNode.getType())) {
-            statsMarker.reset();
-            subCompare(source, target, statsMarker);
-            if ((statsMarker.getAddedCount() > 0 || statsMarker.getRemovedCount() > 0) && statsMarker.getUnchangedCount() > 0 &&
-                (statsMarker.getAddedCount() < 2 && statsMarker.getRemovedCount() < 2 || statsMarker.getAddedPercent() < threshold && statsMarker.getRemovePercent() < threshold)) {
+            SubCompareEvent event = new SubCompareEvent();
+            event.begin();
+            recorder.reset();
+            subCompare(source, target, recorder);
+            boolean applied = (statsMarker.getAddedCount() > 0 || statsMarker.getRemovedCount() > 0) && statsMarker.getUnchangedCount() > 0 &&
+                (statsMarker.getAddedCount() < 2 && statsMarker.getRemovedCount() < 2 || statsMarker.getAddedPercent() < threshold && statsMarker.getRemovePercent() < threshold);
+            event.commit(subMarker, source.length(), target.length(), recorder.size(), applied);
+            if (applied) {
+                subMarker.reset();
+                recorder.replay(subMarker);
                 beforeSubMarkupText(sourceNode, targetNode);
-                sourceResult.append(subMarker.getSourceResult());
-                targetResult.append(subMarker.getTargetResult());
+                sourceResult.append(subMarker.sourceResult);
+                targetResult.append(subMarker.targetResult);
                 afterSubMarkupText(sourceNode, targetNode);
             } else {
                 super.apply(sourceNode, source, targetNode, target);
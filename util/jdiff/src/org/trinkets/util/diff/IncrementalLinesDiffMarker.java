@@ -25,6 +25,6 @@ public class IncrementalLinesDiffMarker extends IncrementalDiffMarker<String> {
     @Override
     protected void subCompare(CharSequence source, CharSequence target, DiffMarker<String> subMarker) {
         // Compare incrementally
-        DiffMarkup.compareWords(source.toString(), target.toString(), subMarker);
+        DiffMarkup.compareWords(source, target, subMarker);
     }
 }
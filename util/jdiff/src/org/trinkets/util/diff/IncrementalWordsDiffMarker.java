@@ -17,6 +17,6 @@ public class IncrementalWordsDiffMarker extends IncrementalDiffMarker<Character>
     @Override
     protected void subCompare(CharSequence source, CharSequence target, DiffMarker<Character> subMarker) {
         // Compare incrementally
-        DiffMarkup.compareChars(source.toString(), target.toString(), subMarker);
+        DiffMarkup.compareChars(source, target, subMarker);
     }
 }
@@ -0,0 +1,45 @@
+package org.trinkets.util.diff;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Diff engine based on full LCS matrix.
+ * See http://en.wikipedia.org/wiki/Longest_common_subsequence_problem.
+ * <p/>
+ * Engine use O(N*M) time and memory, so it should be used only for small inputs.
+ * If engine has {@link java.util.concurrent.ForkJoinPool}, then large matrix is filled by tiles
+ * of anti-diagonals in parallel.
+ *
+ * @author Alexey Efimov
+ */
+public class LcsDiffEngine implements DiffEngine {
+    private final ForkJoinPool pool;
+
+    public LcsDiffEngine() {
+        this(null);
+    }
+
+    /**
+     * Create parallel engine.
+     *
+     * @param pool Pool to fill matrix, if <code>null</code> then matrix is filled sequentially
+     */
+    public LcsDiffEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public String toString() {
+        // Pool doesn't change result
+        return getClass().getName();
+    }
+
+    public void diff(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength, EditScript script) {
+        DiffAlgorithm.backtrack(
+            new DiffAlgorithm.IntArrayRange(x, xOffset, xLength),
+            new DiffAlgorithm.IntArrayRange(y, yOffset, yLength),
+            script,
+            pool
+        );
+    }
+}
@@ -0,0 +1,194 @@
+package org.trinkets.util.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * LCS matrix. Matrix is stored in one flat int array by rows, and it is filled by square tiles.
+ * Tile depends only on tiles above and at left of it, so tiles on the same anti-diagonal are independent,
+ * and they can be filled in parallel on {@link java.util.concurrent.ForkJoinPool}. Values are the same
+ * as values of matrix filled row by row.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.DiffAlgorithm#lcs(org.trinkets.util.diff.DiffAlgorithm.IntArrayRange, org.trinkets.util.diff.DiffAlgorithm.IntArrayRange)
+ */
+final class LcsMatrix {
+    /**
+     * Size of tile side, tile of ints with its neighbour rows fits into L1 cache
+     */
+    private static final int TILE_SIZE = 64;
+    /**
+     * Minimal count of cells which are filled in parallel
+     */
+    private static final long PARALLEL_THRESHOLD = 1L << 18;
+
+    private final DiffAlgorithm.IntArrayRange x;
+    private final DiffAlgorithm.IntArrayRange y;
+    private final int width;
+    private final int[] cells;
+
+    private LcsMatrix(DiffAlgorithm.IntArrayRange x, DiffAlgorithm.IntArrayRange y) {
+        this.x = x;
+        this.y = y;
+        this.width = y.length() + 1;
+        long size = (long) (x.length() + 1) * width;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("LCS matrix is too large: " + size + " cells");
+        }
+        this.cells = new int[(int) size];
+    }
+
+    /**
+     * Calculate LCS matrix.
+     *
+     * @param x    X list
+     * @param y    Y list
+     * @param pool Pool to fill tiles of anti-diagonals in parallel, if <code>null</code> then tiles are filled sequentially
+     * @return Matrix
+     */
+    static LcsMatrix fill(DiffAlgorithm.IntArrayRange x, DiffAlgorithm.IntArrayRange y, ForkJoinPool pool) {
+        return fill(x, y, pool, null);
+    }
+
+    /**
+     * Calculate LCS matrix within budget. Cells of matrix are spent before filling, and deadline is checked
+     * after each row of tiles or anti-diagonal.
+     *
+     * @param x      X list
+     * @param y      Y list
+     * @param pool   Pool to fill tiles of anti-diagonals in parallel, if <code>null</code> then tiles are filled sequentially
+     * @param budget Budget or <code>null</code>
+     * @return Matrix or <code>null</code> if budget is exhausted
+     */
+    static LcsMatrix fill(DiffAlgorithm.IntArrayRange x, DiffAlgorithm.IntArrayRange y, ForkJoinPool pool,
+                          DiffBudget budget) {
+        if (budget != null && !budget.spend((long) x.length() * y.length())) {
+            return null;
+        }
+        LcsMatrix matrix = new LcsMatrix(x, y);
+        if (pool != null && (long) x.length() * y.length() >= PARALLEL_THRESHOLD) {
+            return pool.invoke(matrix.new Wavefront(budget)) ? matrix : null;
+        }
+        int rows = matrix.getTileRows();
+        int columns = matrix.getTileColumns();
+        for (int ti = 0; ti < rows; ti++) {
+            for (int tj = 0; tj < columns; tj++) {
+                matrix.fillTile(ti, tj);
+            }
+            if (budget != null && !budget.allowsTime()) {
+                return null;
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * @return Count of rows, it is length of X list plus one
+     */
+    public int getRows() {
+        return x.length() + 1;
+    }
+
+    /**
+     * @return Count of columns, it is length of Y list plus one
+     */
+    public int getColumns() {
+        return width;
+    }
+
+    /**
+     * Return length of LCS of first <code>i</code> items of X list and first <code>j</code> items of Y list.
+     *
+     * @param i Row
+     * @param j Column
+     * @return Length of LCS
+     */
+    public int get(int i, int j) {
+        return cells[i * width + j];
+    }
+
+    private int getTileRows() {
+        return (x.length() + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    private int getTileColumns() {
+        return (y.length() + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    /**
+     * Fill tile. Row 0 and column 0 of matrix are zeros, so tiles cover rows and columns from 1.
+     *
+     * @param ti Row of tile
+     * @param tj Column of tile
+     */
+    private void fillTile(int ti, int tj) {
+        int iStart = ti * TILE_SIZE + 1;
+        int iEnd = Math.min(iStart + TILE_SIZE, x.length() + 1);
+        int jStart = tj * TILE_SIZE + 1;
+        int jEnd = Math.min(jStart + TILE_SIZE, width);
+        for (int i = iStart; i < iEnd; i++) {
+            int xi = x.get(i - 1);
+            int row = i * width;
+            int previousRow = row - width;
+            for (int j = jStart; j < jEnd; j++) {
+                if (xi == y.get(j - 1)) {
+                    cells[row + j] = cells[previousRow + j - 1] + 1;
+                } else {
+                    cells[row + j] = Math.max(cells[row + j - 1], cells[previousRow + j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Task to fill anti-diagonals of tiles one by one, tiles of each anti-diagonal are filled in parallel.
+     * Result of task is <code>false</code> if budget is exhausted.
+     */
+    private final class Wavefront extends RecursiveTask<Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final DiffBudget budget;
+
+        private Wavefront(DiffBudget budget) {
+            this.budget = budget;
+        }
+
+        @Override
+        protected Boolean compute() {
+            int rows = getTileRows();
+            int columns = getTileColumns();
+            List<Tile> tiles = new ArrayList<Tile>();
+            for (int d = 0; d < rows + columns - 1; d++) {
+                tiles.clear();
+                for (int ti = Math.max(0, d - columns + 1); ti <= Math.min(d, rows - 1); ti++) {
+                    tiles.add(new Tile(ti, d - ti));
+                }
+                invokeAll(tiles);
+                if (budget != null && !budget.allowsTime()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final class Tile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int ti;
+        private final int tj;
+
+        private Tile(int ti, int tj) {
+            this.ti = ti;
+            this.tj = tj;
+        }
+
+        @Override
+        protected void compute() {
+            fillTile(ti, tj);
+        }
+    }
+}
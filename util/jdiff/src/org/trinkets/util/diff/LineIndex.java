@@ -0,0 +1,424 @@
+package org.trinkets.util.diff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Index of lines. Index records offsets of lines and hashes of their content in one pass over characters,
+ * or over bytes if text is in encoding where line separators are single bytes, such as ASCII or UTF-8.
+ * Separators <code>\r\n</code>, <code>\r</code> and <code>\n</code> belong to the line they terminate.
+ * Content of line is built only if it is requested.
+ * <p/>
+ * Bytes can be split into several segments, for example mapped regions of large file. Lines don't cross
+ * segments, and offsets of lines in bytes are relative to their segment.
+ *
+ * @author Alexey Efimov
+ */
+final class LineIndex {
+    /**
+     * Maximal size of mapped segment of file
+     */
+    static final int SEGMENT_SIZE = 1 << 30;
+
+    private final CharSequence chars;
+    private final ByteBuffer[] segments;
+    /**
+     * First line of each segment, followed by count of lines
+     */
+    private final int[] segmentLines;
+    private final Charset charset;
+    private int[] bounds;
+    private int[] hashes;
+    private int count = 0;
+
+    /**
+     * Create index of characters.
+     *
+     * @param chars Text
+     */
+    LineIndex(CharSequence chars) {
+        this.chars = chars;
+        this.segments = null;
+        this.segmentLines = null;
+        this.charset = null;
+        int length = chars.length();
+        allocate(length);
+        int start = 0;
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+            hash = 31 * hash + c;
+            if (c == '\r' && i + 1 < length && chars.charAt(i + 1) == '\n') {
+                i++;
+                hash = 31 * hash + '\n';
+                c = '\n';
+            }
+            if (c == '\n' || c == '\r') {
+                add(start, hash);
+                start = i + 1;
+                hash = 0;
+            }
+        }
+        if (start < length) {
+            add(start, hash);
+        }
+        bounds[count] = length;
+    }
+
+    /**
+     * Create index of bytes. Bytes are decoded only when content of lines is requested.
+     *
+     * @param bytes   Bytes from position to limit
+     * @param charset Encoding of bytes, line separators should be encoded as single bytes
+     */
+    LineIndex(ByteBuffer bytes, Charset charset) {
+        this(new ByteBuffer[]{bytes}, charset);
+    }
+
+    /**
+     * Create index of segments of bytes. Each segment should end by line separator, except the last one.
+     *
+     * @param segments Segments of bytes from position to limit
+     * @param charset  Encoding of bytes, line separators should be encoded as single bytes
+     */
+    LineIndex(ByteBuffer[] segments, Charset charset) {
+        this.chars = null;
+        this.segments = segments;
+        this.segmentLines = new int[segments.length + 1];
+        this.charset = charset;
+        long total = 0;
+        for (ByteBuffer segment : segments) {
+            total += segment.remaining();
+        }
+        allocate((int) Math.min(total, Integer.MAX_VALUE));
+        for (int s = 0; s < segments.length; s++) {
+            segmentLines[s] = count;
+            ByteBuffer bytes = segments[s];
+            int position = bytes.position();
+            int length = bytes.remaining();
+            int start = 0;
+            int hash = 0;
+            for (int i = 0; i < length; i++) {
+                byte b = bytes.get(position + i);
+                hash = 31 * hash + (b & 0xff);
+                if (b == '\r' && i + 1 < length && bytes.get(position + i + 1) == '\n') {
+                    i++;
+                    hash = 31 * hash + '\n';
+                    b = '\n';
+                }
+                if (b == '\n' || b == '\r') {
+                    add(start, hash);
+                    start = i + 1;
+                    hash = 0;
+                }
+            }
+            if (start < length) {
+                add(start, hash);
+            }
+        }
+        segmentLines[segments.length] = count;
+        bounds[count] = segments.length > 0 ? segments[segments.length - 1].remaining() : 0;
+    }
+
+    /**
+     * Map file and index its lines. If line separators of charset are not single bytes,
+     * then whole file is decoded, and characters are indexed.
+     *
+     * @param channel     File
+     * @param charset     Encoding of file
+     * @param segmentSize Maximal size of mapped segment
+     * @return Index
+     * @throws IOException If file can't be mapped, or line is longer than segment
+     */
+    static LineIndex map(FileChannel channel, Charset charset, int segmentSize) throws IOException {
+        long size = channel.size();
+        if (!isIndexable(charset)) {
+            if (size > segmentSize) {
+                throw new IOException("File in " + charset.name() + " is too large: " + size + " bytes");
+            }
+            return new LineIndex(charset.decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size)));
+        }
+        ByteBuffer[] segments = new ByteBuffer[(int) (size / segmentSize) + 1];
+        int s = 0;
+        long position = 0;
+        while (position < size) {
+            int length = (int) Math.min(segmentSize, size - position);
+            ByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+            if (position + length < size) {
+                // Cut segment after last complete line
+                length = lastLineEnd(segment, length);
+                if (length == 0) {
+                    throw new IOException("Line at " + position + " is longer than " + segmentSize + " bytes");
+                }
+                segment.limit(length);
+            }
+            if (s == segments.length) {
+                ByteBuffer[] newSegments = new ByteBuffer[s * 2];
+                System.arraycopy(segments, 0, newSegments, 0, s);
+                segments = newSegments;
+            }
+            segments[s++] = segment;
+            position += length;
+        }
+        ByteBuffer[] result = new ByteBuffer[s];
+        System.arraycopy(segments, 0, result, 0, s);
+        return new LineIndex(result, charset);
+    }
+
+    /**
+     * Find end of last line in bytes, which are followed by other bytes. Separator <code>\r</code> at the end
+     * can be the first part of <code>\r\n</code>, so it doesn't end a line.
+     */
+    private static int lastLineEnd(ByteBuffer bytes, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            byte b = bytes.get(i);
+            if (b == '\n' || (b == '\r' && i < length - 1)) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Check that line separators of charset are encoded as single bytes, so bytes can be indexed without decoding.
+     *
+     * @param charset Charset
+     * @return <code>true</code> if bytes in this charset can be indexed
+     */
+    static boolean isIndexable(Charset charset) {
+        String name = charset.name();
+        return "UTF-8".equals(name) || "US-ASCII".equals(name) || "ISO-8859-1".equals(name);
+    }
+
+    private void allocate(int length) {
+        int capacity = Math.max(16, Math.min(length / 32, 1 << 20));
+        bounds = new int[capacity + 1];
+        hashes = new int[capacity];
+    }
+
+    private void add(int start, int hash) {
+        if (count == hashes.length) {
+            int capacity = (int) Math.min((long) count * 2, Integer.MAX_VALUE - 8);
+            int[] newBounds = new int[capacity + 1];
+            int[] newHashes = new int[capacity];
+            System.arraycopy(bounds, 0, newBounds, 0, count);
+            System.arraycopy(hashes, 0, newHashes, 0, count);
+            bounds = newBounds;
+            hashes = newHashes;
+        }
+        bounds[count] = start;
+        hashes[count] = hash;
+        count++;
+    }
+
+    /**
+     * @return Count of lines
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Return offset of line. Offset of line <code>size()</code> is length of text.
+     *
+     * @param line Line
+     * @return Offset of line in characters, or offset in bytes of its segment
+     */
+    public int getOffset(int line) {
+        return bounds[line];
+    }
+
+    /**
+     * Return hash of line content with separators. Hash of characters is equal to hash code of line string.
+     *
+     * @param line Line
+     * @return Hash
+     */
+    public int getHash(int line) {
+        return hashes[line];
+    }
+
+    /**
+     * Return bounds of lines as they are returned by {@link org.trinkets.util.diff.SpanTokenizer}.
+     *
+     * @return Offsets of lines, followed by length of text. Array should not be changed.
+     */
+    int[] getBounds() {
+        return bounds;
+    }
+
+    /**
+     * @return Indexed characters or <code>null</code> if bytes are indexed
+     */
+    public CharSequence getChars() {
+        return chars;
+    }
+
+    private int segmentOf(int line) {
+        int low = 0;
+        int high = segments.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segmentLines[middle] <= line) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return end of line in bytes of its segment.
+     */
+    private int end(int segment, int line) {
+        return line + 1 < segmentLines[segment + 1] ? bounds[line + 1] : segments[segment].remaining();
+    }
+
+    /**
+     * Return content of lines. Characters are wrapped without copying, and bytes are decoded.
+     *
+     * @param line  First line
+     * @param count Count of lines
+     * @return Content of lines
+     */
+    public CharSequence getText(int line, int count) {
+        if (chars != null) {
+            return CharBuffer.wrap(chars, bounds[line], bounds[line + count]);
+        }
+        if (count == 0) {
+            return "";
+        }
+        int last = line + count - 1;
+        int segment = segmentOf(line);
+        if (last < segmentLines[segment + 1]) {
+            return decode(segment, bounds[line], end(segment, last));
+        }
+        // Lines are in several segments
+        StringBuilder builder = new StringBuilder();
+        while (line <= last) {
+            int segmentLast = Math.min(last, segmentLines[segment + 1] - 1);
+            if (segmentLast >= line) {
+                builder.append(decode(segment, bounds[line], end(segment, segmentLast)));
+            }
+            line = segmentLast + 1;
+            segment++;
+        }
+        return builder;
+    }
+
+    private CharSequence decode(int segment, int start, int end) {
+        ByteBuffer bytes = segments[segment];
+        ByteBuffer range = bytes.duplicate();
+        range.limit(bytes.position() + end);
+        range.position(bytes.position() + start);
+        return charset.decode(range);
+    }
+
+    /**
+     * Build strings of all lines.
+     *
+     * @return Lines
+     */
+    public String[] toArray() {
+        String[] lines = new String[count];
+        for (int i = 0; i < count; i++) {
+            lines[i] = chars != null ? chars.subSequence(bounds[i], bounds[i + 1]).toString() : getText(i, 1).toString();
+        }
+        return lines;
+    }
+
+    /**
+     * Compare content of lines.
+     *
+     * @param line      Line of this index
+     * @param other     Other index
+     * @param otherLine Line of other index
+     * @return <code>true</code> if lines are equal
+     */
+    public boolean equals(int line, LineIndex other, int otherLine) {
+        boolean sameUnits = chars != null ? other.chars != null : other.chars == null && charset.equals(other.charset);
+        if (!sameUnits) {
+            // Lengths and hashes of characters and bytes can't be compared
+            return getText(line, 1).toString().equals(other.getText(otherLine, 1).toString());
+        }
+        if (hashes[line] != other.hashes[otherLine]) {
+            return false;
+        }
+        int start = bounds[line];
+        int otherStart = other.bounds[otherLine];
+        if (chars != null) {
+            int length = bounds[line + 1] - start;
+            if (length != other.bounds[otherLine + 1] - otherStart) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars.charAt(start + i) != other.chars.charAt(otherStart + i)) {
+                    return false;
+                }
+            }
+        } else {
+            int segment = segmentOf(line);
+            int otherSegment = other.segmentOf(otherLine);
+            int length = end(segment, line) - start;
+            if (length != other.end(otherSegment, otherLine) - otherStart) {
+                return false;
+            }
+            ByteBuffer bytes = segments[segment];
+            ByteBuffer otherBytes = other.segments[otherSegment];
+            int position = bytes.position() + start;
+            int otherPosition = otherBytes.position() + otherStart;
+            for (int i = 0; i < length; i++) {
+                if (bytes.get(position + i) != otherBytes.get(otherPosition + i)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Map lines of two indexes to int ids, equal lines have equal ids. Hashes of bytes differ from hashes
+     * of characters, so both indexes should be built over characters or both over bytes in the same charset.
+     *
+     * @param x X index
+     * @param y Y index
+     * @return Ids of X lines and ids of Y lines
+     */
+    static int[][] intern(LineIndex x, LineIndex y) {
+        int capacity = 16;
+        while (capacity < (x.count + y.count) * 2L) {
+            capacity <<= 1;
+        }
+        LineIndex[] indexes = new LineIndex[capacity];
+        int[] lines = new int[capacity];
+        int[] ids = new int[capacity];
+        int[] size = {0};
+        return new int[][]{intern(x, indexes, lines, ids, size), intern(y, indexes, lines, ids, size)};
+    }
+
+    private static int[] intern(LineIndex index, LineIndex[] indexes, int[] lines, int[] ids, int[] size) {
+        int mask = indexes.length - 1;
+        int[] result = new int[index.count];
+        for (int line = 0; line < index.count; line++) {
+            int h = index.hashes[line];
+            // Spread bits of hash code, because table size is power of two
+            h ^= (h >>> 20) ^ (h >>> 12);
+            h ^= (h >>> 7) ^ (h >>> 4);
+            int slot = h & mask;
+            while (indexes[slot] != null && !indexes[slot].equals(lines[slot], index, line)) {
+                slot = (slot + 1) & mask;
+            }
+            if (indexes[slot] == null) {
+                indexes[slot] = index;
+                lines[slot] = line;
+                ids[slot] = size[0]++;
+            }
+            result[line] = ids[slot];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,278 @@
+package org.trinkets.util.diff;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Diff engine based on linear space variation of Myers algorithm.
+ * See E. Myers, "An O(ND) Difference Algorithm and Its Variations", section 4b.
+ * <p/>
+ * Engine finds middle snake of optimal D-path and recursively compares ranges before and after it,
+ * appending instructions to {@link org.trinkets.util.diff.EditScript} in order of ranges. Engine use
+ * O((N+M)*D) time and O(N+M) memory, so it can be used for very large inputs.
+ * <p/>
+ * Ranges before and after middle snake are independent, so if engine has {@link java.util.concurrent.ForkJoinPool}
+ * then range after snake is compared in parallel task with its own diagonal arrays, and its script is appended
+ * after script of range before snake. The result is the same as sequential one.
+ *
+ * @author Alexey Efimov
+ */
+public class LinearSpaceDiffEngine implements DiffEngine {
+    /**
+     * Minimal total length of ranges which are compared in separate task
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final ForkJoinPool pool;
+
+    public LinearSpaceDiffEngine() {
+        this(null);
+    }
+
+    /**
+     * Create parallel engine.
+     *
+     * @param pool Pool to compare ranges, if <code>null</code> then ranges are compared sequentially
+     */
+    public LinearSpaceDiffEngine(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public String toString() {
+        // Pool doesn't change result
+        return getClass().getName();
+    }
+
+    public void diff(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength, EditScript script) {
+        if (pool != null && xLength + yLength >= PARALLEL_THRESHOLD) {
+            RangeTask task = new RangeTask(x, xOffset, xOffset + xLength, y, yOffset, yOffset + yLength, script.getBudget());
+            script.append(ForkJoinTask.inForkJoinPool() ? task.invoke() : pool.invoke(task));
+        } else {
+            Bisection bisection = new Bisection(x, y, xLength + yLength, script, false);
+            bisection.diff(xOffset, xOffset + xLength, yOffset, yOffset + yLength);
+        }
+    }
+
+    /**
+     * Task to compare range with its own state.
+     */
+    private static final class RangeTask extends RecursiveTask<EditScript> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] x;
+        private final int xStart;
+        private final int xEnd;
+        private final int[] y;
+        private final int yStart;
+        private final int yEnd;
+        private final DiffBudget budget;
+
+        private RangeTask(int[] x, int xStart, int xEnd, int[] y, int yStart, int yEnd, DiffBudget budget) {
+            this.x = x;
+            this.xStart = xStart;
+            this.xEnd = xEnd;
+            this.y = y;
+            this.yStart = yStart;
+            this.yEnd = yEnd;
+            this.budget = budget;
+        }
+
+        @Override
+        protected EditScript compute() {
+            EditScript script = new EditScript();
+            script.setBudget(budget);
+            Bisection bisection = new Bisection(x, y, (xEnd - xStart) + (yEnd - yStart), script, true);
+            bisection.diff(xStart, xEnd, yStart, yEnd);
+            return script;
+        }
+    }
+
+    /**
+     * State of comparison. Diagonal arrays are shared between all recursive calls of one task.
+     */
+    private static final class Bisection {
+        private final int[] x;
+        private final int[] y;
+        private final int[] forward;
+        private final int[] reverse;
+        private final EditScript script;
+        private final boolean parallel;
+
+        private Bisection(int[] x, int[] y, int length, EditScript script, boolean parallel) {
+            this.x = x;
+            this.y = y;
+            this.script = script;
+            this.parallel = parallel;
+            int size = 2 * ((length + 1) / 2) + 2;
+            this.forward = new int[size];
+            this.reverse = new int[size];
+        }
+
+        private void append(DiffNode.Type type, int length) {
+            script.append(type, length);
+        }
+
+        /**
+         * Compare x[xStart..xEnd] with y[yStart..yEnd].
+         *
+         * @param xStart Start of X range
+         * @param xEnd   End of X range (exclusive)
+         * @param yStart Start of Y range
+         * @param yEnd   End of Y range (exclusive)
+         */
+        private void diff(int xStart, int xEnd, int yStart, int yEnd) {
+            // Skip equal objects at begin
+            int prefix = 0;
+            while (xStart < xEnd && yStart < yEnd && x[xStart] == y[yStart]) {
+                xStart++;
+                yStart++;
+                prefix++;
+            }
+            append(DiffNode.Type.UNCHANGED, prefix);
+            // Skip equal objects at end
+            int suffix = 0;
+            while (xEnd > xStart && yEnd > yStart && x[xEnd - 1] == y[yEnd - 1]) {
+                xEnd--;
+                yEnd--;
+                suffix++;
+            }
+
+            if (xStart == xEnd || yStart == yEnd) {
+                append(DiffNode.Type.REMOVED, xEnd - xStart);
+                append(DiffNode.Type.ADDED, yEnd - yStart);
+            } else {
+                long split = bisect(xStart, xEnd, yStart, yEnd);
+                int xSplit = xStart + (int) (split >>> 32);
+                int ySplit = yStart + (int) split;
+                if (split > 0 && (xSplit < xEnd || ySplit < yEnd)) {
+                    if (parallel &&
+                        (xSplit - xStart) + (ySplit - yStart) >= PARALLEL_THRESHOLD &&
+                        (xEnd - xSplit) + (yEnd - ySplit) >= PARALLEL_THRESHOLD) {
+                        RangeTask after = new RangeTask(x, xSplit, xEnd, y, ySplit, yEnd, script.getBudget());
+                        after.fork();
+                        diff(xStart, xSplit, yStart, ySplit);
+                        script.append(after.join());
+                    } else {
+                        diff(xStart, xSplit, yStart, ySplit);
+                        diff(xSplit, xEnd, ySplit, yEnd);
+                    }
+                } else {
+                    append(DiffNode.Type.REMOVED, xEnd - xStart);
+                    append(DiffNode.Type.ADDED, yEnd - yStart);
+                }
+            }
+
+            append(DiffNode.Type.UNCHANGED, suffix);
+        }
+
+        /**
+         * Find the point where forward and reverse D-paths are overlapped.
+         *
+         * @param xStart Start of X range
+         * @param xEnd   End of X range (exclusive)
+         * @param yStart Start of Y range
+         * @param yEnd   End of Y range (exclusive)
+         * @return Relative split point packed as <code>(x &lt;&lt; 32) | y</code> or -1 if there is no overlap
+         *         or budget is exhausted.
+         */
+        private long bisect(int xStart, int xEnd, int yStart, int yEnd) {
+            int n = xEnd - xStart;
+            int m = yEnd - yStart;
+            int maxD = (n + m + 1) / 2;
+            int vOffset = maxD;
+            int vLength = 2 * maxD + 2;
+            for (int i = 0; i < vLength; i++) {
+                forward[i] = -1;
+                reverse[i] = -1;
+            }
+            forward[vOffset + 1] = 0;
+            reverse[vOffset + 1] = 0;
+            int delta = n - m;
+            // If the total number of objects is odd, then the front path will collide with the reverse path
+            boolean front = delta % 2 != 0;
+            // Offsets for start and end of k loop, prevents mapping of space beyond the grid
+            int k1start = 0;
+            int k1end = 0;
+            int k2start = 0;
+            int k2end = 0;
+            DiffBudget budget = script.getBudget();
+            for (int d = 0; d < maxD; d++) {
+                if (budget != null && !(budget.allowsEditDistance(2L * d) && budget.spend(2L * d + 2))) {
+                    // Range is marked as changed
+                    script.setTruncated(true);
+                    return -1;
+                }
+                // Walk the front path one step
+                for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                    int k1Offset = vOffset + k1;
+                    int x1;
+                    if (k1 == -d || k1 != d && forward[k1Offset - 1] < forward[k1Offset + 1]) {
+                        x1 = forward[k1Offset + 1];
+                    } else {
+                        x1 = forward[k1Offset - 1] + 1;
+                    }
+                    int y1 = x1 - k1;
+                    while (x1 < n && y1 < m && x[xStart + x1] == y[yStart + y1]) {
+                        x1++;
+                        y1++;
+                    }
+                    forward[k1Offset] = x1;
+                    if (x1 > n) {
+                        // Ran off the right of the graph
+                        k1end += 2;
+                    } else if (y1 > m) {
+                        // Ran off the bottom of the graph
+                        k1start += 2;
+                    } else if (front) {
+                        int k2Offset = vOffset + delta - k1;
+                        if (k2Offset >= 0 && k2Offset < vLength && reverse[k2Offset] != -1) {
+                            // Mirror x2 onto top-left coordinate system
+                            int x2 = n - reverse[k2Offset];
+                            if (x1 >= x2) {
+                                return ((long) x1 << 32) | y1;
+                            }
+                        }
+                    }
+                }
+
+                // Walk the reverse path one step
+                for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                    int k2Offset = vOffset + k2;
+                    int x2;
+                    if (k2 == -d || k2 != d && reverse[k2Offset - 1] < reverse[k2Offset + 1]) {
+                        x2 = reverse[k2Offset + 1];
+                    } else {
+                        x2 = reverse[k2Offset - 1] + 1;
+                    }
+                    int y2 = x2 - k2;
+                    while (x2 < n && y2 < m && x[xEnd - x2 - 1] == y[yEnd - y2 - 1]) {
+                        x2++;
+                        y2++;
+                    }
+                    reverse[k2Offset] = x2;
+                    if (x2 > n) {
+                        // Ran off the left of the graph
+                        k2end += 2;
+                    } else if (y2 > m) {
+                        // Ran off the top of the graph
+                        k2start += 2;
+                    } else if (!front) {
+                        int k1Offset = vOffset + delta - k2;
+                        if (k1Offset >= 0 && k1Offset < vLength && forward[k1Offset] != -1) {
+                            int x1 = forward[k1Offset];
+                            int y1 = vOffset + x1 - k1Offset;
+                            // Mirror x2 onto top-left coordinate system
+                            x2 = n - x2;
+                            if (x1 >= x2) {
+                                return ((long) x1 << 32) | y1;
+                            }
+                        }
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.trinkets.util.diff;
+
+import java.util.Arrays;
+
+/**
+ * Aligner of changed lines. Each line is split into spans of words once, and spans are mapped to sorted int ids.
+ * Similarity of two lines is count of common words, and score of position is sum of similarities of lines
+ * paired at this position. So all positions are evaluated in one pass over pairs of lines, instead of
+ * comparing shorter range with each window of longer range.
+ *
+ * @author Alexey Efimov
+ */
+public class LinesChangeAligner implements ChangeAligner<String> {
+    private final LineIndex sourceIndex;
+    private final LineIndex targetIndex;
+
+    public LinesChangeAligner() {
+        this(null, null);
+    }
+
+    /**
+     * Create aligner of indexed lines. Lines are read from indexes, so lists of lines passed to
+     * {@link #align(String[], int, int, String[], int, int)} are not used and can be <code>null</code>.
+     *
+     * @param sourceIndex Index of source lines
+     * @param targetIndex Index of target lines
+     */
+    LinesChangeAligner(LineIndex sourceIndex, LineIndex targetIndex) {
+        this.sourceIndex = sourceIndex;
+        this.targetIndex = targetIndex;
+    }
+
+    public int align(String[] x, int xOffset, int xLength, String[] y, int yOffset, int yLength) {
+        SpanInterner interner = new SpanInterner(16 * (xLength + yLength));
+        int[][] xWords = words(interner, x, sourceIndex, xOffset, xLength);
+        int[][] yWords = words(interner, y, targetIndex, yOffset, yLength);
+        int[][] shorter = xLength < yLength ? xWords : yWords;
+        int[][] longer = xLength < yLength ? yWords : xWords;
+
+        long maxScore = 0;
+        int index = -1;
+        for (int i = 0; i + shorter.length <= longer.length; i++) {
+            long score = 0;
+            for (int k = 0; k < shorter.length; k++) {
+                score += common(shorter[k], longer[i + k]);
+            }
+            if (score > maxScore) {
+                maxScore = score;
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    private static int[][] words(SpanInterner interner, String[] lines, LineIndex index, int offset, int length) {
+        int[][] words = new int[length][];
+        for (int i = 0; i < length; i++) {
+            CharSequence text;
+            int start;
+            int end;
+            if (index == null) {
+                text = lines[offset + i];
+                start = 0;
+                end = text.length();
+            } else if (index.getChars() != null) {
+                // Tokenize line in place
+                text = index.getChars();
+                start = index.getOffset(offset + i);
+                end = index.getOffset(offset + i + 1);
+            } else {
+                text = index.getText(offset + i, 1);
+                start = 0;
+                end = text.length();
+            }
+            words[i] = interner.intern(text, SpanTokenizer.WORDS.tokenize(text, start, end - start));
+            Arrays.sort(words[i]);
+        }
+        return words;
+    }
+
+    /**
+     * Count common ids of sorted arrays.
+     *
+     * @param a Sorted ids
+     * @param b Sorted ids
+     * @return Size of multiset intersection
+     */
+    private static int common(int[] a, int[] b) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                count++;
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,42 @@
+package org.trinkets.util.diff;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of markup of diff by {@link org.trinkets.util.diff.DiffMarker}.
+ *
+ * @author Alexey Efimov
+ */
+@Name("org.trinkets.util.diff.Markup")
+@Label("Diff Markup")
+@Category("jdiff")
+@Description("Markup of diff nodes by marker")
+final class MarkupEvent extends jdk.jfr.Event {
+    @Label("Marker")
+    Class<?> marker;
+
+    @Label("Source Length")
+    @Description("Count of marked source tokens")
+    int sourceLength;
+
+    @Label("Target Length")
+    @Description("Count of marked target tokens")
+    int targetLength;
+
+    @Label("Node Count")
+    int nodeCount;
+
+    void commit(Object marker, int sourceLength, int targetLength, int nodeCount) {
+        end();
+        if (shouldCommit()) {
+            this.marker = marker.getClass();
+            this.sourceLength = sourceLength;
+            this.targetLength = targetLength;
+            this.nodeCount = nodeCount;
+            commit();
+        }
+    }
+}
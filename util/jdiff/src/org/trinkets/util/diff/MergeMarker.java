@@ -0,0 +1,17 @@
+package org.trinkets.util.diff;
+
+/**
+ * Merge marker. Marker receives regions of three-way merge in order of base, and each region has offset and
+ * length in base, ours and theirs lists, as {@link org.trinkets.util.diff.DiffNode} does for two lists.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.DiffMerge
+ * @see org.trinkets.util.diff.TextMergeMarker
+ */
+public interface MergeMarker<T> {
+    void apply(DiffMerge.Type type, T[] base, int baseOffset, int baseLength,
+               T[] ours, int oursOffset, int oursLength,
+               T[] theirs, int theirsOffset, int theirsLength);
+
+    void reset();
+}
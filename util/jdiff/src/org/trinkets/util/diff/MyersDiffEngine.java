@@ -0,0 +1,183 @@
+package org.trinkets.util.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Diff engine based on Myers greedy algorithm.
+ * See E. Myers, "An O(ND) Difference Algorithm and Its Variations".
+ * <p/>
+ * Engine use O((N+M)*D) time and O(D^2) memory, where D is size of minimal edit script,
+ * so it is very fast for large inputs with small changes.
+ * <p/>
+ * If budget of script is exhausted, then engine takes the furthest reaching path found so far,
+ * and marks remaining ranges as changed.
+ * <p/>
+ * If maximal edit distance is given, then engine stops when D passes it and compares ranges by fallback engine,
+ * so memory is bounded by O(maxDistance^2).
+ *
+ * @author Alexey Efimov
+ */
+public class MyersDiffEngine implements DiffEngine {
+    private final DiffEngine fallback;
+    private final long maxDistance;
+
+    public MyersDiffEngine() {
+        this(null, Long.MAX_VALUE);
+    }
+
+    /**
+     * Create engine.
+     *
+     * @param fallback    Engine to compare ranges with edit distance greater than maxDistance
+     * @param maxDistance Maximal edit distance to find by this engine
+     */
+    public MyersDiffEngine(DiffEngine fallback, long maxDistance) {
+        this.fallback = fallback;
+        this.maxDistance = maxDistance;
+    }
+
+    @Override
+    public String toString() {
+        return fallback != null ? getClass().getName() + "(" + fallback + ", " + maxDistance + ")" : getClass().getName();
+    }
+
+    public void diff(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength, EditScript script) {
+        List<int[]> trace = trace(
+            new DiffAlgorithm.IntArrayRange(x, xOffset, xLength),
+            new DiffAlgorithm.IntArrayRange(y, yOffset, yLength),
+            script.getBudget(), fallback != null ? maxDistance : Long.MAX_VALUE
+        );
+        if (trace == null) {
+            // Edit distance is too large
+            fallback.diff(x, xOffset, xLength, y, yOffset, yLength, script);
+        } else {
+            backtrack(trace, xLength, yLength, script);
+        }
+    }
+
+    /**
+     * Read diff from furthest reaching D-paths.
+     *
+     * @param trace   Furthest reaching D-paths
+     * @param xLength Length of X list
+     * @param yLength Length of Y list
+     * @param script  Script to append diff to
+     */
+    private static void backtrack(List<int[]> trace, int xLength, int yLength, EditScript script) {
+        BacktrackBuilder backtrack = new BacktrackBuilder();
+        // From back to begin
+        int i = xLength, j = yLength;
+        int lastD = trace.size() - 1;
+        int[] last = trace.get(lastD);
+        int delta = i - j;
+        if (Math.abs(delta) > lastD || get(last, lastD, delta) < i) {
+            // Trace is truncated, start from the furthest point of the last D-path
+            int bestK = 0;
+            int bestI = -1;
+            for (int k = -lastD; k <= lastD; k += 2) {
+                int pointI = get(last, lastD, k);
+                int pointJ = pointI - k;
+                if (pointI <= i && pointJ >= 0 && pointJ <= j && (bestI < 0 || 2 * pointI - k > 2 * bestI - bestK)) {
+                    bestK = k;
+                    bestI = pointI;
+                }
+            }
+            if (bestI < 0) {
+                // No point inside of ranges, all is changed
+                bestI = 0;
+                bestK = 0;
+                lastD = 0;
+            }
+            backtrack.prepend(DiffNode.Type.ADDED, j - (bestI - bestK));
+            backtrack.prepend(DiffNode.Type.REMOVED, i - bestI);
+            i = bestI;
+            j = bestI - bestK;
+            script.setTruncated(true);
+        }
+        for (int d = lastD; d > 0; d--) {
+            int[] v = trace.get(d - 1);
+            int k = i - j;
+            boolean down = isDown(v, d, k);
+            int previousK = down ? k + 1 : k - 1;
+            int previousI = get(v, d - 1, previousK);
+            int previousJ = previousI - previousK;
+            // Snake from end of edit to current point
+            int snakeI = down ? previousI : previousI + 1;
+            if (i > snakeI) {
+                backtrack.prepend(DiffNode.Type.UNCHANGED, i - snakeI);
+            }
+            backtrack.prepend(down ? DiffNode.Type.ADDED : DiffNode.Type.REMOVED, 1);
+            i = previousI;
+            j = previousJ;
+        }
+        if (i > 0) {
+            // Initial snake
+            backtrack.prepend(DiffNode.Type.UNCHANGED, i);
+        }
+        backtrack.appendTo(script);
+    }
+
+    /**
+     * Calculate furthest reaching points for each D.
+     *
+     * @param x      X list
+     * @param y      Y list
+     * @param budget      Budget or <code>null</code>
+     * @param maxDistance Maximal D
+     * @return List of diagonals for D = 0..trace.size() - 1, where value for diagonal k is stored at index k + d.
+     *         If budget is exhausted, then the last D-path doesn't reach the end.
+     *         If D passes maxDistance, then <code>null</code>.
+     */
+    private static List<int[]> trace(DiffAlgorithm.IntArrayRange x, DiffAlgorithm.IntArrayRange y, DiffBudget budget,
+                                     long maxDistance) {
+        int n = x.length();
+        int m = y.length();
+        int max = n + m;
+        List<int[]> trace = new ArrayList<int[]>();
+        int[] v = new int[2 * max + 3];
+        for (int d = 0; d <= max; d++) {
+            if (d > maxDistance) {
+                return null;
+            }
+            if (d > 0 && budget != null && !(budget.allowsEditDistance(d) && budget.spend(d + 1))) {
+                return trace;
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int i;
+                if (k == -d || k != d && v[max + k - 1] < v[max + k + 1]) {
+                    i = v[max + k + 1];
+                } else {
+                    i = v[max + k - 1] + 1;
+                }
+                int j = i - k;
+                while (i < n && j < m && x.get(i) == y.get(j)) {
+                    i++;
+                    j++;
+                }
+                v[max + k] = i;
+                if (i >= n && j >= m) {
+                    trace.add(copy(v, max, d));
+                    return trace;
+                }
+            }
+            trace.add(copy(v, max, d));
+        }
+        return trace;
+    }
+
+    private static boolean isDown(int[] v, int d, int k) {
+        // Same decision as in trace, but on stored values of D - 1
+        return k == -d || k != d && get(v, d - 1, k - 1) < get(v, d - 1, k + 1);
+    }
+
+    private static int get(int[] v, int d, int k) {
+        return v[k + d];
+    }
+
+    private static int[] copy(int[] v, int max, int d) {
+        int[] copy = new int[2 * d + 1];
+        System.arraycopy(v, max - d, copy, 0, copy.length);
+        return copy;
+    }
+}
@@ -0,0 +1,215 @@
+package org.trinkets.util.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Patch of lines in unified format. Hunks are applied in one pass over source: lines between hunks are
+ * copied, and context and removed lines of hunks are checked against source. Hunks must be in order of
+ * source and must match source at offsets of their headers, patch is not applied with fuzz.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.UnifiedDiffWriter
+ */
+public final class Patch {
+    private static final Pattern HUNK_HEADER = Pattern.compile("@@ -(\\d+)(?:,(\\d+))? \\+(\\d+)(?:,(\\d+))? @@.*", Pattern.DOTALL);
+    private static final String NO_NEWLINE = "\\ No newline at end of file";
+
+    /**
+     * Source start, source length, target start, target length and index of first line of each hunk
+     */
+    private final int[] hunks;
+    private final int hunkCount;
+    /**
+     * Operation of each line of hunks: <code>' '</code>, <code>'-'</code> or <code>'+'</code>
+     */
+    private final String operations;
+    private final String[] lines;
+
+    private Patch(int[] hunks, int hunkCount, String operations, String[] lines) {
+        this.hunks = hunks;
+        this.hunkCount = hunkCount;
+        this.operations = operations;
+        this.lines = lines;
+    }
+
+    /**
+     * Parse patch. Lines before the first hunk, such as <code>---</code> and <code>+++</code> headers, are skipped.
+     *
+     * @param text Text of patch
+     * @return Patch
+     * @throws IllegalArgumentException If hunk is malformed
+     */
+    public static Patch parse(String text) {
+        String[] patchLines = Strings.lines(text);
+        int[] hunks = new int[20];
+        int hunkCount = 0;
+        StringBuilder operations = new StringBuilder();
+        List<String> lines = new ArrayList<String>();
+        int i = 0;
+        while (i < patchLines.length) {
+            Matcher matcher = HUNK_HEADER.matcher(patchLines[i]);
+            if (!matcher.matches()) {
+                i++;
+                continue;
+            }
+            int sourceLength = matcher.group(2) != null ? Integer.parseInt(matcher.group(2)) : 1;
+            int sourceStart = Integer.parseInt(matcher.group(1)) - (sourceLength > 0 ? 1 : 0);
+            int targetLength = matcher.group(4) != null ? Integer.parseInt(matcher.group(4)) : 1;
+            int targetStart = Integer.parseInt(matcher.group(3)) - (targetLength > 0 ? 1 : 0);
+            if (hunkCount * 5 == hunks.length) {
+                int[] newHunks = new int[hunks.length * 2];
+                System.arraycopy(hunks, 0, newHunks, 0, hunks.length);
+                hunks = newHunks;
+            }
+            hunks[hunkCount * 5] = sourceStart;
+            hunks[hunkCount * 5 + 1] = sourceLength;
+            hunks[hunkCount * 5 + 2] = targetStart;
+            hunks[hunkCount * 5 + 3] = targetLength;
+            hunks[hunkCount * 5 + 4] = lines.size();
+            hunkCount++;
+            i++;
+
+            int sourceCount = 0;
+            int targetCount = 0;
+            while (i < patchLines.length && (sourceCount < sourceLength || targetCount < targetLength ||
+                patchLines[i].startsWith(NO_NEWLINE))) {
+                String line = patchLines[i++];
+                char operation = Strings.isLineSeparators(line) ? ' ' : line.charAt(0);
+                if (operation == '\\') {
+                    // Previous line has no separator
+                    int last = lines.size() - 1;
+                    if (last >= 0) {
+                        lines.set(last, trimSeparator(lines.get(last)));
+                    }
+                    continue;
+                }
+                if (operation != ' ' && operation != '-' && operation != '+') {
+                    throw new IllegalArgumentException("Unexpected line in hunk #" + hunkCount + ": " + line);
+                }
+                if (operation != '+') {
+                    sourceCount++;
+                }
+                if (operation != '-') {
+                    targetCount++;
+                }
+                operations.append(operation);
+                lines.add(Strings.isLineSeparators(line) ? line : line.substring(1));
+            }
+            if (sourceCount != sourceLength || targetCount != targetLength) {
+                throw new IllegalArgumentException("Hunk #" + hunkCount + " is truncated");
+            }
+        }
+        return new Patch(hunks, hunkCount, operations.toString(), lines.toArray(new String[lines.size()]));
+    }
+
+    private static String trimSeparator(String line) {
+        int end = line.length();
+        if (end > 0 && line.charAt(end - 1) == '\n') {
+            end--;
+        }
+        if (end > 0 && line.charAt(end - 1) == '\r') {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    public int getHunkCount() {
+        return hunkCount;
+    }
+
+    /**
+     * Apply patch to text. Lines of text are indexed, and lines between hunks are copied as ranges of text.
+     *
+     * @param source Source text
+     * @return Patched text
+     * @throws IllegalArgumentException If patch doesn't match source
+     */
+    public String apply(String source) {
+        LineIndex index = new LineIndex(source);
+        int[] bounds = index.getBounds();
+        int count = index.size();
+        StringBuilder result = new StringBuilder(source.length());
+        int line = 0;
+        for (int h = 0; h < hunkCount; h++) {
+            int start = checkStart(h, line, count);
+            result.append(source, bounds[line], bounds[start]);
+            line = start;
+            for (int i = hunks[h * 5 + 4]; i < getEnd(h); i++) {
+                char operation = operations.charAt(i);
+                if (operation == '+') {
+                    result.append(lines[i]);
+                } else {
+                    if (line >= count || bounds[line + 1] - bounds[line] != lines[i].length() ||
+                        !source.regionMatches(bounds[line], lines[i], 0, lines[i].length())) {
+                        throw mismatch(h, line);
+                    }
+                    if (operation == ' ') {
+                        result.append(lines[i]);
+                    }
+                    line++;
+                }
+            }
+        }
+        result.append(source, bounds[line], bounds[count]);
+        return result.toString();
+    }
+
+    /**
+     * Apply patch to lines.
+     *
+     * @param source Source lines
+     * @return Patched lines
+     * @throws IllegalArgumentException If patch doesn't match source
+     */
+    public String[] apply(String[] source) {
+        List<String> result = new ArrayList<String>(source.length);
+        int line = 0;
+        for (int h = 0; h < hunkCount; h++) {
+            int start = checkStart(h, line, source.length);
+            while (line < start) {
+                result.add(source[line++]);
+            }
+            for (int i = hunks[h * 5 + 4]; i < getEnd(h); i++) {
+                char operation = operations.charAt(i);
+                if (operation == '+') {
+                    result.add(lines[i]);
+                } else {
+                    if (line >= source.length || !source[line].equals(lines[i])) {
+                        throw mismatch(h, line);
+                    }
+                    if (operation == ' ') {
+                        result.add(lines[i]);
+                    }
+                    line++;
+                }
+            }
+        }
+        while (line < source.length) {
+            result.add(source[line++]);
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+    private int checkStart(int hunk, int line, int count) {
+        int start = hunks[hunk * 5];
+        if (start < line || start > count) {
+            throw mismatch(hunk, start);
+        }
+        return start;
+    }
+
+    /**
+     * @param hunk Hunk
+     * @return Index of line after the last line of hunk
+     */
+    private int getEnd(int hunk) {
+        return hunk + 1 < hunkCount ? hunks[(hunk + 1) * 5 + 4] : lines.length;
+    }
+
+    private static IllegalArgumentException mismatch(int hunk, int line) {
+        return new IllegalArgumentException("Hunk #" + (hunk + 1) + " doesn't match source at line " + (line + 1));
+    }
+}
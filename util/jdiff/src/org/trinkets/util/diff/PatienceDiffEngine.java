@@ -0,0 +1,314 @@
+package org.trinkets.util.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Diff engine based on patience diff algorithm.
+ * See B. Cohen, "Patience Diff Advantages".
+ * <p/>
+ * Engine takes tokens which are unique in both ranges, finds longest increasing sequence of them
+ * and uses it as anchors. Ranges between anchors are compared again, and ranges without unique
+ * tokens are compared by fallback engine. Source code and configuration files have a lot of unique lines,
+ * so the result is more readable and fallback engine works only with small ranges.
+ * <p/>
+ * Ranges between anchors are independent, so if engine has {@link java.util.concurrent.ForkJoinPool}
+ * then large ranges are compared in parallel, and their scripts are appended in order of ranges.
+ * The result is the same as sequential one.
+ *
+ * @author Alexey Efimov
+ */
+public class PatienceDiffEngine implements DiffEngine {
+    /**
+     * Minimal total length of ranges which are compared in separate task
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final DiffEngine fallback;
+    private final ForkJoinPool pool;
+
+    public PatienceDiffEngine() {
+        this(new MyersDiffEngine());
+    }
+
+    /**
+     * Create engine.
+     *
+     * @param fallback Engine to compare ranges without unique tokens
+     */
+    public PatienceDiffEngine(DiffEngine fallback) {
+        this(fallback, null);
+    }
+
+    /**
+     * Create parallel engine. Fallback engine is called from several threads, so it should be thread safe.
+     *
+     * @param fallback Engine to compare ranges without unique tokens
+     * @param pool     Pool to compare ranges between anchors, if <code>null</code> then ranges are compared sequentially
+     */
+    public PatienceDiffEngine(DiffEngine fallback, ForkJoinPool pool) {
+        this.fallback = fallback;
+        this.pool = pool;
+    }
+
+    @Override
+    public String toString() {
+        // Pool doesn't change result
+        return getClass().getName() + "(" + fallback + ")";
+    }
+
+    public void diff(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength, EditScript script) {
+        if (pool != null && xLength + yLength >= PARALLEL_THRESHOLD) {
+            RangeTask task = new RangeTask(x, xOffset, xOffset + xLength, y, yOffset, yOffset + yLength, script.getBudget(),
+                script.getMetrics());
+            script.append(ForkJoinTask.inForkJoinPool() ? task.invoke() : pool.invoke(task));
+        } else {
+            diffSequentially(x, xOffset, xLength, y, yOffset, yLength, script);
+        }
+    }
+
+    private void diffSequentially(int[] x, int xOffset, int xLength, int[] y, int yOffset, int yLength,
+                                  EditScript script) {
+        // Stack of ranges {xStart, xEnd, yStart, yEnd} and unchanged lengths {length}
+        List<int[]> tasks = new ArrayList<int[]>();
+        tasks.add(new int[]{xOffset, xOffset + xLength, yOffset, yOffset + yLength});
+        while (!tasks.isEmpty()) {
+            int[] task = tasks.remove(tasks.size() - 1);
+            if (task.length == 1) {
+                script.append(DiffNode.Type.UNCHANGED, task[0]);
+            } else {
+                diff(x, task[0], task[1], y, task[2], task[3], script, tasks);
+            }
+        }
+    }
+
+    private void diff(int[] x, int xStart, int xEnd, int[] y, int yStart, int yEnd,
+                      EditScript script, List<int[]> tasks) {
+        Gaps gaps = new Gaps(x, xStart, xEnd, y, yStart, yEnd);
+        script.append(DiffNode.Type.UNCHANGED, gaps.prefix);
+        if (gaps.count == 0) {
+            diffWithoutAnchors(x, y, gaps, script);
+            script.append(DiffNode.Type.UNCHANGED, gaps.suffix);
+        } else {
+            // Push in reverse order: suffix, last gap, last anchor, ..., first anchor, first gap
+            tasks.add(new int[]{gaps.suffix});
+            for (int k = gaps.count - 1; k >= 0; k--) {
+                pushRange(tasks, gaps.xStart(k), gaps.xEnd(k), gaps.yStart(k), gaps.yEnd(k));
+                if (k > 0) {
+                    tasks.add(new int[]{1});
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare trimmed range without anchors by fallback engine.
+     */
+    private void diffWithoutAnchors(int[] x, int[] y, Gaps gaps, EditScript script) {
+        if (gaps.xStart == gaps.xEnd || gaps.yStart == gaps.yEnd) {
+            script.append(DiffNode.Type.REMOVED, gaps.xEnd - gaps.xStart);
+            script.append(DiffNode.Type.ADDED, gaps.yEnd - gaps.yStart);
+        } else {
+            fallback.diff(x, gaps.xStart, gaps.xEnd - gaps.xStart, y, gaps.yStart, gaps.yEnd - gaps.yStart, script);
+        }
+    }
+
+    /**
+     * Range without common prefix and suffix, split by anchors into gaps. Gaps are separated by one anchor each.
+     */
+    private static final class Gaps {
+        private final int prefix;
+        private final int suffix;
+        private final int xStart;
+        private final int xEnd;
+        private final int yStart;
+        private final int yEnd;
+        /**
+         * Anchors as pairs {x, y} or <code>null</code> if there are no anchors
+         */
+        private final int[] anchors;
+        /**
+         * Count of gaps, it is zero if there are no anchors
+         */
+        private final int count;
+
+        private Gaps(int[] x, int xStart, int xEnd, int[] y, int yStart, int yEnd) {
+            // Skip equal objects at begin and end
+            int prefix = 0;
+            while (xStart < xEnd && yStart < yEnd && x[xStart] == y[yStart]) {
+                xStart++;
+                yStart++;
+                prefix++;
+            }
+            int suffix = 0;
+            while (xEnd > xStart && yEnd > yStart && x[xEnd - 1] == y[yEnd - 1]) {
+                xEnd--;
+                yEnd--;
+                suffix++;
+            }
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.xStart = xStart;
+            this.xEnd = xEnd;
+            this.yStart = yStart;
+            this.yEnd = yEnd;
+            anchors = xStart < xEnd && yStart < yEnd ? anchors(x, xStart, xEnd, y, yStart, yEnd) : null;
+            count = anchors != null ? anchors.length / 2 + 1 : 0;
+        }
+
+        private int xStart(int gap) {
+            return gap > 0 ? anchors[gap * 2 - 2] + 1 : xStart;
+        }
+
+        private int xEnd(int gap) {
+            return gap < count - 1 ? anchors[gap * 2] : xEnd;
+        }
+
+        private int yStart(int gap) {
+            return gap > 0 ? anchors[gap * 2 - 1] + 1 : yStart;
+        }
+
+        private int yEnd(int gap) {
+            return gap < count - 1 ? anchors[gap * 2 + 1] : yEnd;
+        }
+    }
+
+    /**
+     * Task to compare range. Ranges between anchors are forked if they are large enough,
+     * other ranges are compared by current thread.
+     */
+    private final class RangeTask extends RecursiveTask<EditScript> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] x;
+        private final int xStart;
+        private final int xEnd;
+        private final int[] y;
+        private final int yStart;
+        private final int yEnd;
+        private final DiffBudget budget;
+        private final DiffMetrics metrics;
+
+        private RangeTask(int[] x, int xStart, int xEnd, int[] y, int yStart, int yEnd, DiffBudget budget,
+                          DiffMetrics metrics) {
+            this.x = x;
+            this.xStart = xStart;
+            this.xEnd = xEnd;
+            this.y = y;
+            this.yStart = yStart;
+            this.yEnd = yEnd;
+            this.budget = budget;
+            this.metrics = metrics;
+        }
+
+        @Override
+        protected EditScript compute() {
+            EditScript script = new EditScript();
+            script.setBudget(budget);
+            script.setMetrics(metrics);
+            Gaps gaps = new Gaps(x, xStart, xEnd, y, yStart, yEnd);
+            script.append(DiffNode.Type.UNCHANGED, gaps.prefix);
+            if (gaps.count == 0) {
+                diffWithoutAnchors(x, y, gaps, script);
+            } else {
+                // Fork large gaps first, then compare small ones and join in order
+                RangeTask[] tasks = new RangeTask[gaps.count];
+                for (int k = 0; k < gaps.count; k++) {
+                    if ((gaps.xEnd(k) - gaps.xStart(k)) + (gaps.yEnd(k) - gaps.yStart(k)) >= PARALLEL_THRESHOLD) {
+                        tasks[k] = new RangeTask(x, gaps.xStart(k), gaps.xEnd(k), y, gaps.yStart(k), gaps.yEnd(k),
+                            budget, metrics);
+                        tasks[k].fork();
+                    }
+                }
+                for (int k = 0; k < gaps.count; k++) {
+                    if (k > 0) {
+                        script.append(DiffNode.Type.UNCHANGED, 1);
+                    }
+                    if (tasks[k] != null) {
+                        script.append(tasks[k].join());
+                    } else {
+                        diffSequentially(
+                            x, gaps.xStart(k), gaps.xEnd(k) - gaps.xStart(k),
+                            y, gaps.yStart(k), gaps.yEnd(k) - gaps.yStart(k), script);
+                    }
+                }
+            }
+            script.append(DiffNode.Type.UNCHANGED, gaps.suffix);
+            return script;
+        }
+    }
+
+    private static void pushRange(List<int[]> tasks, int xStart, int xEnd, int yStart, int yEnd) {
+        if (xStart < xEnd || yStart < yEnd) {
+            tasks.add(new int[]{xStart, xEnd, yStart, yEnd});
+        }
+    }
+
+    /**
+     * Find anchors. Anchor is a token which occurs once in X range and once in Y range. Anchors are
+     * the longest sequence of such tokens which have increasing positions in both ranges.
+     *
+     * @return Positions of anchors as pairs {x, y} or <code>null</code> if there are no unique common tokens.
+     */
+    private static int[] anchors(int[] x, int xStart, int xEnd, int[] y, int yStart, int yEnd) {
+        IdIndex index = new IdIndex(x, xStart, xEnd - xStart);
+        int[] xCounts = new int[index.size()];
+        int[] yCounts = new int[index.size()];
+        int[] yPositions = new int[index.size()];
+        for (int i = xStart; i < xEnd; i++) {
+            xCounts[index.indexOf(x[i])]++;
+        }
+        for (int j = yStart; j < yEnd; j++) {
+            int id = index.indexOf(y[j]);
+            if (id >= 0) {
+                yCounts[id]++;
+                yPositions[id] = j;
+            }
+        }
+        // Unique common tokens in order of X
+        int count = 0;
+        int[] xUnique = new int[xEnd - xStart];
+        int[] yUnique = new int[xEnd - xStart];
+        for (int i = xStart; i < xEnd; i++) {
+            int id = index.indexOf(x[i]);
+            if (xCounts[id] == 1 && yCounts[id] == 1) {
+                xUnique[count] = i;
+                yUnique[count] = yPositions[id];
+                count++;
+            }
+        }
+        if (count == 0) {
+            return null;
+        }
+        // Patience sorting: longest increasing sequence of Y positions
+        int[] piles = new int[count];
+        int[] previous = new int[count];
+        int pileCount = 0;
+        for (int k = 0; k < count; k++) {
+            int low = 0;
+            int high = pileCount;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (yUnique[piles[middle]] < yUnique[k]) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[k] = low > 0 ? piles[low - 1] : -1;
+            piles[low] = k;
+            if (low == pileCount) {
+                pileCount++;
+            }
+        }
+        int[] anchors = new int[pileCount * 2];
+        for (int k = piles[pileCount - 1], a = pileCount - 1; k >= 0; k = previous[k], a--) {
+            anchors[a * 2] = xUnique[k];
+            anchors[a * 2 + 1] = yUnique[k];
+        }
+        return anchors;
+    }
+}
@@ -0,0 +1,86 @@
+package org.trinkets.util.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Marker which passes nodes to delegate and records them, so they can be replayed
+ * to other marker without comparing again.
+ *
+ * @author Alexey Efimov
+ */
+final class RecordingDiffMarker<T> implements DiffMarker<T>, CharSequenceDiffMarker {
+    private final StatisticsDiffMarker<T> delegate;
+    private final List<Call> calls = new ArrayList<Call>();
+
+    RecordingDiffMarker(StatisticsDiffMarker<T> delegate) {
+        this.delegate = delegate;
+    }
+
+    public void apply(DiffNode sourceNode, T[] source, int sourceOffset, int sourceLength,
+                      DiffNode targetNode, T[] target, int targetOffset, int targetLength) {
+        calls.add(new Call(sourceNode, source, sourceOffset, sourceLength, targetNode, target, targetOffset, targetLength));
+        delegate.apply(sourceNode, source, sourceOffset, sourceLength, targetNode, target, targetOffset, targetLength);
+    }
+
+    public void apply(DiffNode sourceNode, CharSequence source, int sourceOffset, int sourceLength,
+                      DiffNode targetNode, CharSequence target, int targetOffset, int targetLength) {
+        calls.add(new Call(sourceNode, source, sourceOffset, sourceLength, targetNode, target, targetOffset, targetLength));
+        delegate.apply(sourceNode, source, sourceOffset, sourceLength, targetNode, target, targetOffset, targetLength);
+    }
+
+    /**
+     * @return Count of recorded nodes
+     */
+    int size() {
+        return calls.size();
+    }
+
+    public void reset() {
+        calls.clear();
+        delegate.reset();
+    }
+
+    /**
+     * Apply recorded nodes to marker.
+     *
+     * @param marker Marker
+     */
+    @SuppressWarnings({"unchecked"})
+    public void replay(StringBuilderDiffMarker<T> marker) {
+        for (Call call : calls) {
+            if (call.source instanceof CharSequence) {
+                marker.apply(
+                    call.sourceNode, (CharSequence) call.source, call.sourceOffset, call.sourceLength,
+                    call.targetNode, (CharSequence) call.target, call.targetOffset, call.targetLength);
+            } else {
+                marker.apply(
+                    call.sourceNode, (T[]) call.source, call.sourceOffset, call.sourceLength,
+                    call.targetNode, (T[]) call.target, call.targetOffset, call.targetLength);
+            }
+        }
+    }
+
+    private static final class Call {
+        private final DiffNode sourceNode;
+        private final Object source;
+        private final int sourceOffset;
+        private final int sourceLength;
+        private final DiffNode targetNode;
+        private final Object target;
+        private final int targetOffset;
+        private final int targetLength;
+
+        private Call(DiffNode sourceNode, Object source, int sourceOffset, int sourceLength,
+                     DiffNode targetNode, Object target, int targetOffset, int targetLength) {
+            this.sourceNode = sourceNode;
+            this.source = source;
+            this.sourceOffset = sourceOffset;
+            this.sourceLength = sourceLength;
+            this.targetNode = targetNode;
+            this.target = target;
+            this.targetOffset = targetOffset;
+            this.targetLength = targetLength;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.trinkets.util.diff;
+
+/**
+ * Interner of text spans. Maps each distinct span to dense int id, as {@link org.trinkets.util.diff.TokenInterner}
+ * does for tokens, but spans are hashed and compared in place, without creating strings.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.SpanTokenizer
+ */
+final class SpanInterner {
+    private CharSequence[] texts;
+    private int[] starts;
+    private int[] ends;
+    private int[] hashes;
+    private int[] ids;
+    private int size = 0;
+    private int mask;
+
+    SpanInterner(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @return Count of distinct spans
+     */
+    public int size() {
+        return size;
+    }
+
+    public int intern(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        int index = hash & mask;
+        while (texts[index] != null) {
+            if (hashes[index] == hash && equals(texts[index], starts[index], ends[index], text, start, end)) {
+                return ids[index];
+            }
+            index = (index + 1) & mask;
+        }
+        texts[index] = text;
+        starts[index] = start;
+        ends[index] = end;
+        hashes[index] = hash;
+        ids[index] = size++;
+        if (size * 2 > texts.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    /**
+     * Intern tokens of text.
+     *
+     * @param text   Text
+     * @param bounds Bounds of tokens returned by {@link org.trinkets.util.diff.SpanTokenizer#tokenize(CharSequence, int, int)}
+     * @return Ids of tokens
+     */
+    public int[] intern(CharSequence text, int[] bounds) {
+        int[] result = new int[bounds.length - 1];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = intern(text, bounds[i], bounds[i + 1]);
+        }
+        return result;
+    }
+
+    private static boolean equals(CharSequence text1, int start1, int end1, CharSequence text2, int start2, int end2) {
+        if (end1 - start1 != end2 - start2) {
+            return false;
+        }
+        for (int i = start1, j = start2; i < end1; i++, j++) {
+            if (text1.charAt(i) != text2.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + text.charAt(i);
+        }
+        // Spread bits of hash code, because table size is power of two
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    private void allocate(int capacity) {
+        texts = new CharSequence[capacity];
+        starts = new int[capacity];
+        ends = new int[capacity];
+        hashes = new int[capacity];
+        ids = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash() {
+        CharSequence[] oldTexts = texts;
+        int[] oldStarts = starts;
+        int[] oldEnds = ends;
+        int[] oldHashes = hashes;
+        int[] oldIds = ids;
+        allocate(oldTexts.length << 1);
+        for (int i = 0; i < oldTexts.length; i++) {
+            if (oldTexts[i] != null) {
+                int index = oldHashes[i] & mask;
+                while (texts[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                texts[index] = oldTexts[i];
+                starts[index] = oldStarts[i];
+                ends[index] = oldEnds[i];
+                hashes[index] = oldHashes[i];
+                ids[index] = oldIds[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.trinkets.util.diff;
+
+/**
+ * Tokenizer which splits text to spans without creating strings. Each delimiter is a token itself,
+ * as {@link java.util.StringTokenizer} with returned delimiters does. Delimiters are looked up in bitmap,
+ * and token boundaries are returned as int offsets in original text.
+ *
+ * @author Alexey Efimov
+ */
+final class SpanTokenizer {
+    /**
+     * Tokenizer of words.
+     */
+    public static final SpanTokenizer WORDS = new SpanTokenizer(Strings.WORD_SEPARATORS);
+
+    private final long[] delimiters;
+
+    SpanTokenizer(String delimiters) {
+        int max = 0;
+        for (int i = 0; i < delimiters.length(); i++) {
+            max = Math.max(max, delimiters.charAt(i));
+        }
+        this.delimiters = new long[(max >>> 6) + 1];
+        for (int i = 0; i < delimiters.length(); i++) {
+            char c = delimiters.charAt(i);
+            this.delimiters[c >>> 6] |= 1L << c;
+        }
+    }
+
+    public boolean isDelimiter(char c) {
+        int index = c >>> 6;
+        return index < delimiters.length && (delimiters[index] & (1L << c)) != 0;
+    }
+
+    /**
+     * Split range of text to tokens.
+     *
+     * @param text   Text
+     * @param offset Start of range
+     * @param length Length of range
+     * @return Bounds of tokens, token i is range from <code>bounds[i]</code> to <code>bounds[i + 1]</code>,
+     *         so count of tokens is <code>bounds.length - 1</code>.
+     */
+    public int[] tokenize(CharSequence text, int offset, int length) {
+        int end = offset + length;
+        // Count tokens first, so bounds are allocated once
+        int count = 0;
+        boolean word = false;
+        for (int i = offset; i < end; i++) {
+            if (isDelimiter(text.charAt(i))) {
+                count++;
+                word = false;
+            } else if (!word) {
+                count++;
+                word = true;
+            }
+        }
+        int[] bounds = new int[count + 1];
+        int index = 0;
+        word = false;
+        for (int i = offset; i < end; i++) {
+            if (isDelimiter(text.charAt(i))) {
+                bounds[index++] = i;
+                word = false;
+            } else if (!word) {
+                bounds[index++] = i;
+                word = true;
+            }
+        }
+        bounds[count] = end;
+        return bounds;
+    }
+}
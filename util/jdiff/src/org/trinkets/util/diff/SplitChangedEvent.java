@@ -0,0 +1,38 @@
+package org.trinkets.util.diff;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of {@link org.trinkets.util.diff.DiffAlgorithm#alignChanged(DiffNode, Object[], Object[], ChangeAligner)}.
+ *
+ * @author Alexey Efimov
+ */
+@Name("org.trinkets.util.diff.SplitChanged")
+@Label("Diff Split Changed")
+@Category("jdiff")
+@Description("Alignment of changed ranges with different lengths")
+final class SplitChangedEvent extends jdk.jfr.Event {
+    @Label("Aligner")
+    Class<?> aligner;
+
+    @Label("Aligned Count")
+    @Description("Count of aligned changes")
+    int alignedCount;
+
+    @Label("Node Count")
+    @Description("Count of nodes after split")
+    int nodeCount;
+
+    void commit(ChangeAligner<?> aligner, int alignedCount, DiffNode node) {
+        end();
+        if (shouldCommit()) {
+            this.aligner = aligner != null ? aligner.getClass() : null;
+            this.alignedCount = alignedCount;
+            this.nodeCount = DiffAlgorithm.count(node);
+            commit();
+        }
+    }
+}
@@ -1,12 +1,15 @@
 package org.trinkets.util.diff;
 
 /**
- * DiffMarker width statistics counters.
+ * DiffMarker width statistics counters. Lengths are counted by
+ * {@link org.trinkets.util.diff.StringBuilderDiffMarker#length(Object[], int, int)}, so statistics
+ * can be collected without markup.
  *
  * @author Alexey Efimov
  */
-public class StatisticsDiffMarker<T> implements DiffMarker<T> {
+public class StatisticsDiffMarker<T> implements DiffMarker<T>, CharSequenceDiffMarker {
     protected final StringBuilderDiffMarker<T> delegate;
+    private final boolean markup;
 
     private int addedLength = 0;
     private int addedCount = 0;
@@ -16,17 +19,38 @@ public class StatisticsDiffMarker<T> implements DiffMarker<T> {
     private int unchangedCount = 0;
 
     public StatisticsDiffMarker(StringBuilderDiffMarker<T> delegate) {
+        this(delegate, true);
+    }
+
+    /**
+     * Create marker.
+     *
+     * @param delegate Marker to count lengths of tokens
+     * @param markup   Markup nodes by delegate too, otherwise only statistics is counted
+     */
+    public StatisticsDiffMarker(StringBuilderDiffMarker<T> delegate, boolean markup) {
         this.delegate = delegate;
+        this.markup = markup;
     }
 
     public void apply(DiffNode sourceNode, T[] source, int sourceOffset, int sourceLength,
                       DiffNode targetNode, T[] target, int targetOffset, int targetLength) {
 
         update(
-            sourceNode.getType(), delegate.toCharSequence(source, sourceOffset, sourceLength),
-            targetNode.getType(), delegate.toCharSequence(target, targetOffset, targetLength)
+            sourceNode.getType(), delegate.length(source, sourceOffset, sourceLength),
+            targetNode.getType(), delegate.length(target, targetOffset, targetLength)
         );
-        delegate.apply(sourceNode, source, sourceOffset, sourceLength, targetNode, target, targetOffset, targetLength);
+        if (markup) {
+            delegate.apply(sourceNode, source, sourceOffset, sourceLength, targetNode, target, targetOffset, targetLength);
+        }
+    }
+
+    public void apply(DiffNode sourceNode, CharSequence source, int sourceOffset, int sourceLength,
+                      DiffNode targetNode, CharSequence target, int targetOffset, int targetLength) {
+        update(sourceNode.getType(), sourceLength, targetNode.getType(), targetLength);
+        if (markup) {
+            delegate.apply(sourceNode, source, sourceOffset, sourceLength, targetNode, target, targetOffset, targetLength);
+        }
     }
 
     public void reset() {
@@ -36,25 +60,25 @@ public class StatisticsDiffMarker<T> implements DiffMarker<T> {
         removedCount = 0;
         unchangedLength = 0;
         unchangedCount = 0;
-        if (delegate != null) {
+        if (markup && delegate != null) {
             delegate.reset();
         }
     }
 
-    private void update(DiffNode.Type sourceType, CharSequence source, DiffNode.Type targetType, CharSequence target) {
+    private void update(DiffNode.Type sourceType, int sourceLength, DiffNode.Type targetType, int targetLength) {
         if (DiffNode.Type.ADDED.equals(targetType)) {
             addedCount++;
-            addedLength += target.length();
+            addedLength += targetLength;
         }
 
         if (DiffNode.Type.REMOVED.equals(sourceType)) {
             removedCount++;
-            removedLength += source.length();
+            removedLength += sourceLength;
         }
 
         if (DiffNode.Type.UNCHANGED.equals(sourceType)) {
             unchangedCount++;
-            unchangedLength += source.length();
+            unchangedLength += sourceLength;
         }
     }
 
@@ -1,15 +1,27 @@
 package org.trinkets.util.diff;
 
+import java.io.IOException;
+import java.nio.CharBuffer;
+
 /**
  * Simple implementation of {@link org.trinkets.util.diff.DiffMarker}.
+ * <p/>
+ * By default results are collected in memory. If output is set by {@link #setOutput(Appendable, Appendable)},
+ * then markup of each node is written to output right after it is built, so memory use does not depend
+ * on size of results.
  *
  * @author Alexey Efimov
+ * @see org.trinkets.util.diff.ChannelWriter
  */
-public abstract class StringBuilderDiffMarker<T> implements DiffMarker<T> {
+public abstract class StringBuilderDiffMarker<T> implements DiffMarker<T>, CharSequenceDiffMarker {
     protected final StringBuilder sourceResult = new StringBuilder();
     protected final StringBuilder targetResult = new StringBuilder();
     protected final StringBuilderDiffMarkupDecorator decorator;
 
+    private Appendable sourceOutput = null;
+    private Appendable targetOutput = null;
+    private IOException outputError = null;
+
     protected StringBuilderDiffMarker(StringBuilderDiffMarkupDecorator decorator) {
         this.decorator = decorator;
     }
@@ -22,11 +34,71 @@ public abstract class StringBuilderDiffMarker<T> implements DiffMarker<T> {
         return targetResult.toString();
     }
 
+    /**
+     * Set output for results. Results are not collected in memory if output is set.
+     *
+     * @param sourceOutput Output of source markup, or <code>null</code> to collect it in memory
+     * @param targetOutput Output of target markup, or <code>null</code> to collect it in memory
+     */
+    public void setOutput(Appendable sourceOutput, Appendable targetOutput) {
+        this.sourceOutput = sourceOutput;
+        this.targetOutput = targetOutput;
+        this.outputError = null;
+    }
+
+    /**
+     * Return error of writing to output. After the first error nothing is written.
+     *
+     * @return Error or <code>null</code> if output was written successfully
+     */
+    public IOException getOutputError() {
+        return outputError;
+    }
+
     public final void apply(DiffNode sourceNode, T[] source, int sourceOffset, int sourceLength,
                             DiffNode targetNode, T[] target, int targetOffset, int targetLength) {
         apply(
             sourceNode, escape(toCharSequence(source, sourceOffset, sourceLength)),
             targetNode, escape(toCharSequence(target, targetOffset, targetLength)));
+        flush();
+    }
+
+    public final void apply(DiffNode sourceNode, CharSequence source, int sourceOffset, int sourceLength,
+                            DiffNode targetNode, CharSequence target, int targetOffset, int targetLength) {
+        // Wrap ranges without copying of characters
+        apply(
+            sourceNode, escape(CharBuffer.wrap(source, sourceOffset, sourceOffset + sourceLength)),
+            targetNode, escape(CharBuffer.wrap(target, targetOffset, targetOffset + targetLength)));
+        flush();
+    }
+
+    /**
+     * Write collected markup to output.
+     */
+    private void flush() {
+        if (outputError == null) {
+            try {
+                if (sourceOutput != null) {
+                    sourceOutput.append(sourceResult);
+                    sourceResult.setLength(0);
+                }
+                if (targetOutput != null) {
+                    targetOutput.append(targetResult);
+                    targetResult.setLength(0);
+                }
+            } catch (IOException e) {
+                outputError = e;
+            }
+        }
+        if (outputError != null) {
+            // Drop markup which can't be written
+            if (sourceOutput != null) {
+                sourceResult.setLength(0);
+            }
+            if (targetOutput != null) {
+                targetResult.setLength(0);
+            }
+        }
     }
 
     protected CharSequence escape(CharSequence chars) {
@@ -50,6 +122,19 @@ public abstract class StringBuilderDiffMarker<T> implements DiffMarker<T> {
 
     public abstract CharSequence toCharSequence(T[] array, int offset, int length);
 
+    /**
+     * Return length of text of tokens. Text is built by default, subclasses should
+     * calculate length without building it.
+     *
+     * @param array  Tokens
+     * @param offset Offset of tokens
+     * @param length Count of tokens
+     * @return Length of text
+     */
+    public int length(T[] array, int offset, int length) {
+        return toCharSequence(array, offset, length).length();
+    }
+
     protected void beforeMarkupText(DiffNode sourceNode, DiffNode targetNode) {
         if (decorator != null) {
             decorator.beforeMarkupText(sourceNode, sourceResult, targetNode, targetResult);
@@ -14,4 +14,13 @@ public class StringDiffMarker extends StringBuilderDiffMarker<String> {
     public CharSequence toCharSequence(String[] array, int offset, int length) {
         return Strings.toCharSequence(array, offset, length);
     }
+
+    @Override
+    public int length(String[] array, int offset, int length) {
+        int result = 0;
+        for (int i = offset; i < array.length && i < offset + length; i++) {
+            result += array[i].length();
+        }
+        return result;
+    }
 }
@@ -2,9 +2,6 @@ package org.trinkets.util.diff;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.StringTokenizer;
 
 /**
  * Strings utility.
@@ -12,35 +9,30 @@ import java.util.StringTokenizer;
  * @author Alexey Efimov
  */
 final class Strings {
+    static final String WORD_SEPARATORS = " \n\t\r\f.-_\\=,`\"~!@#$%^&*()[]{}<>\\|/+-?:;№";
+
     private Strings() {
     }
 
     public static String[] split(String text, String separators) {
-        List<String> strings = new ArrayList<String>();
-        StringTokenizer tokenizer = new StringTokenizer(text, separators, true);
-        while (tokenizer.hasMoreTokens()) {
-            strings.add(tokenizer.nextToken());
-        }
-        return strings.toArray(new String[strings.size()]);
+        return split(text, new SpanTokenizer(separators));
     }
 
-    public static String[] lines(String text) {
-        List<String> result = new ArrayList<String>();
-        String[] lines = split(text, "\n\r");
-        for (String line : lines) {
-            if (result.size() > 0 && isLineSeparators(line) &&
-                !result.get(result.size() - 1).endsWith("\n") && !result.get(result.size() - 1).endsWith("\r")) {
-                result.set(result.size() - 1, result.get(result.size() - 1) + line);
-            } else {
-                result.add(line);
-            }
+    private static String[] split(String text, SpanTokenizer tokenizer) {
+        int[] bounds = tokenizer.tokenize(text, 0, text.length());
+        String[] strings = new String[bounds.length - 1];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = text.substring(bounds[i], bounds[i + 1]);
         }
+        return strings;
+    }
 
-        return result.toArray(new String[result.size()]);
+    public static String[] lines(String text) {
+        return new LineIndex(text).toArray();
     }
 
     public static String[] words(String text) {
-        return split(text, " \n\t\r\f.-_\\=,`\"~!@#$%^&*()[]{}<>\\|/+-?:;№");
+        return split(text, SpanTokenizer.WORDS);
     }
 
     public static Character[] toArray(char[] chars) {
@@ -60,7 +52,14 @@ final class Strings {
     }
 
     public static String[] lines(ByteBuffer byteBuffer, String encoding) {
-        return lines(Charset.forName(encoding).decode(byteBuffer).toString());
+        Charset charset = Charset.forName(encoding);
+        if (!LineIndex.isIndexable(charset)) {
+            return lines(charset.decode(byteBuffer).toString());
+        }
+        // Find lines in bytes and decode each line once
+        String[] lines = new LineIndex(byteBuffer, charset).toArray();
+        byteBuffer.position(byteBuffer.limit());
+        return lines;
     }
 
     public static boolean isLineSeparator(char c) {
@@ -85,6 +84,14 @@ final class Strings {
         return chars;
     }
 
+    public static int[] toIds(CharSequence chars, int offset, int length) {
+        int[] ids = new int[length];
+        for (int i = 0; i < length; i++) {
+            ids[i] = chars.charAt(offset + i);
+        }
+        return ids;
+    }
+
     public static CharSequence toCharSequence(String[] strings, int offset, int length) {
         StringBuilder builder = new StringBuilder();
         for (int i = offset; i < strings.length && i < offset + length; i++) {
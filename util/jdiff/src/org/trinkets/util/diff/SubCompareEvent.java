@@ -0,0 +1,48 @@
+package org.trinkets.util.diff;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of sub comparison of changed node by {@link org.trinkets.util.diff.IncrementalDiffMarker}.
+ *
+ * @author Alexey Efimov
+ */
+@Name("org.trinkets.util.diff.SubCompare")
+@Label("Diff Sub Compare")
+@Category("jdiff")
+@Description("Comparison of changed node by sub marker")
+final class SubCompareEvent extends jdk.jfr.Event {
+    @Label("Marker")
+    Class<?> marker;
+
+    @Label("Source Length")
+    @Description("Count of source characters")
+    int sourceLength;
+
+    @Label("Target Length")
+    @Description("Count of target characters")
+    int targetLength;
+
+    @Label("Node Count")
+    @Description("Count of nodes of sub comparison")
+    int nodeCount;
+
+    @Label("Applied")
+    @Description("Sub comparison is below threshold and it is marked up")
+    boolean applied;
+
+    void commit(Object marker, int sourceLength, int targetLength, int nodeCount, boolean applied) {
+        end();
+        if (shouldCommit()) {
+            this.marker = marker.getClass();
+            this.sourceLength = sourceLength;
+            this.targetLength = targetLength;
+            this.nodeCount = nodeCount;
+            this.applied = applied;
+            commit();
+        }
+    }
+}
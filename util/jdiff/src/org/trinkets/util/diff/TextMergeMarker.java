@@ -0,0 +1,125 @@
+package org.trinkets.util.diff;
+
+import java.io.IOException;
+
+/**
+ * Marker which builds merged text of lines. Conflicts are written with ours, base and theirs lines
+ * between conflict markers <code>&lt;&lt;&lt;&lt;&lt;&lt;&lt;</code>, <code>|||||||</code>,
+ * <code>=======</code> and <code>&gt;&gt;&gt;&gt;&gt;&gt;&gt;</code>.
+ * <p/>
+ * By default result is collected in memory. If output is set by {@link #setOutput(Appendable)},
+ * then each region is written to output right after it is merged.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.DiffMerge#mergeLines(String, String, String, MergeMarker)
+ */
+public class TextMergeMarker implements MergeMarker<String> {
+    private final StringBuilder result = new StringBuilder();
+    private Appendable output = null;
+    private IOException outputError = null;
+    private boolean showBase = true;
+    private int conflictCount = 0;
+
+    public String getResult() {
+        return result.toString();
+    }
+
+    /**
+     * Set output for result. Result is not collected in memory if output is set.
+     *
+     * @param output Output of result, or <code>null</code> to collect it in memory
+     */
+    public void setOutput(Appendable output) {
+        this.output = output;
+        this.outputError = null;
+    }
+
+    /**
+     * Return error of writing to output. After the first error nothing is written.
+     *
+     * @return Error or <code>null</code> if output was written successfully
+     */
+    public IOException getOutputError() {
+        return outputError;
+    }
+
+    public boolean isShowBase() {
+        return showBase;
+    }
+
+    /**
+     * Set whether base lines of conflicts are written.
+     *
+     * @param showBase If <code>false</code> then conflicts have only ours and theirs lines
+     */
+    public void setShowBase(boolean showBase) {
+        this.showBase = showBase;
+    }
+
+    public int getConflictCount() {
+        return conflictCount;
+    }
+
+    public void apply(DiffMerge.Type type, String[] base, int baseOffset, int baseLength,
+                      String[] ours, int oursOffset, int oursLength,
+                      String[] theirs, int theirsOffset, int theirsLength) {
+        switch (type) {
+            case THEIRS:
+                append(theirs, theirsOffset, theirsLength, false);
+                break;
+            case CONFLICT:
+                conflictCount++;
+                result.append("<<<<<<< ours\n");
+                append(ours, oursOffset, oursLength, true);
+                if (showBase) {
+                    result.append("||||||| base\n");
+                    append(base, baseOffset, baseLength, true);
+                }
+                result.append("=======\n");
+                append(theirs, theirsOffset, theirsLength, true);
+                result.append(">>>>>>> theirs\n");
+                break;
+            default:
+                append(ours, oursOffset, oursLength, false);
+        }
+        flush();
+    }
+
+    /**
+     * Append lines.
+     *
+     * @param lines     Lines
+     * @param offset    Offset of lines
+     * @param length    Count of lines
+     * @param terminate Append line separator if the last line has no one, so conflict marker starts at new line
+     */
+    private void append(String[] lines, int offset, int length, boolean terminate) {
+        for (int i = offset; i < offset + length; i++) {
+            result.append(lines[i]);
+        }
+        if (terminate && length > 0) {
+            String last = lines[offset + length - 1];
+            if (!last.endsWith("\n") && !last.endsWith("\r")) {
+                result.append('\n');
+            }
+        }
+    }
+
+    private void flush() {
+        if (output != null) {
+            if (outputError == null) {
+                try {
+                    output.append(result);
+                } catch (IOException e) {
+                    outputError = e;
+                }
+            }
+            result.setLength(0);
+        }
+    }
+
+    public void reset() {
+        result.setLength(0);
+        conflictCount = 0;
+    }
+}
@@ -0,0 +1,97 @@
+package org.trinkets.util.diff;
+
+/**
+ * Tokens interner. Maps each distinct token to dense int id, so equal tokens
+ * have equal ids and diff engines can compare ids instead of calling {@link Object#equals(Object)}.
+ * <p/>
+ * Interner is an open addressing hash table, it is built once per comparison.
+ *
+ * @author Alexey Efimov
+ */
+final class TokenInterner<T> {
+    private static final int NULL_ID = 0;
+
+    private Object[] keys;
+    private int[] hashes;
+    private int[] ids;
+    private int size = 1;
+    private int mask;
+
+    TokenInterner(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * Return count of distinct ids, including id of <code>null</code> token.
+     *
+     * @return Size of alphabet
+     */
+    public int size() {
+        return size;
+    }
+
+    public int intern(T token) {
+        if (token == null) {
+            return NULL_ID;
+        }
+        int hash = hash(token);
+        int index = hash & mask;
+        while (keys[index] != null) {
+            if (hashes[index] == hash && token.equals(keys[index])) {
+                return ids[index];
+            }
+            index = (index + 1) & mask;
+        }
+        keys[index] = token;
+        hashes[index] = hash;
+        ids[index] = size++;
+        if (size * 2 > keys.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    public int[] intern(T[] array, int offset, int length) {
+        int[] result = new int[length];
+        for (int i = 0; i < length; i++) {
+            result[i] = intern(array[offset + i]);
+        }
+        return result;
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        hashes = new int[capacity];
+        ids = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash() {
+        Object[] oldKeys = keys;
+        int[] oldHashes = hashes;
+        int[] oldIds = ids;
+        allocate(oldKeys.length << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int index = oldHashes[i] & mask;
+                while (keys[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = oldKeys[i];
+                hashes[index] = oldHashes[i];
+                ids[index] = oldIds[i];
+            }
+        }
+    }
+
+    private static int hash(Object token) {
+        // Spread bits of hash code, because table size is power of two
+        int h = token.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+}
@@ -0,0 +1,349 @@
+package org.trinkets.util.diff;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Comparison of directory trees. Both trees are walked in parallel, then files are matched by relative paths.
+ * Mapped content of files with equal sizes is compared byte by byte, and equal files are reported as identical
+ * without comparison of lines. Lines of other text files are compared like
+ * {@link org.trinkets.util.diff.DiffMarkup#compareFiles(java.nio.file.Path, java.nio.file.Path, java.nio.charset.Charset, DiffMarker)}
+ * does.
+ * <p/>
+ * Files are compared concurrently on given executor, but at most {@link #getMaxPending()} files are compared
+ * ahead of listener, and results are passed to listener in order of relative paths. Executor must not run
+ * comparison itself, otherwise comparison can wait for its own tasks. If comparison or listener fails, then
+ * pending comparisons are cancelled.
+ * <p/>
+ * Only regular files are compared. Symbolic links are not followed, and they are not reported.
+ *
+ * @author Alexey Efimov
+ */
+public class TreeDiff {
+    /**
+     * Size of mapped region for comparison of content
+     */
+    private static final int SEGMENT_SIZE = 1 << 30;
+    /**
+     * Count of first bytes which are checked for zero byte of binary file
+     */
+    private static final int BINARY_CHECK_SIZE = 8000;
+
+    private final ExecutorService executor;
+    private Charset charset = Charset.forName("UTF-8");
+    private DiffEngine engine = DiffAlgorithm.DEFAULT_ENGINE;
+    private int maxPending = 64;
+
+    /**
+     * Create comparison.
+     *
+     * @param executor Executor of walking and comparison tasks, its size bounds count of files compared at once
+     */
+    public TreeDiff(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    public DiffEngine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(DiffEngine engine) {
+        this.engine = engine;
+    }
+
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    /**
+     * Set count of files which are compared ahead of listener. It bounds memory of results waiting for listener.
+     *
+     * @param maxPending Count of files, at least 1
+     */
+    public void setMaxPending(int maxPending) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("Count of pending files must be positive: " + maxPending);
+        }
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Compare trees.
+     *
+     * @param source   Source directory
+     * @param target   Target directory
+     * @param listener Listener of results
+     * @throws IOException If trees or files can't be read
+     */
+    public void compare(final Path source, final Path target, Listener listener) throws IOException {
+        Future<List<String>> sourceWalk = executor.submit(new Callable<List<String>>() {
+            public List<String> call() throws IOException {
+                return walk(source);
+            }
+        });
+        Deque<Future<Result>> pending = new ArrayDeque<Future<Result>>();
+        try {
+            List<String> targetPaths = walk(target);
+            List<String> sourcePaths = get(sourceWalk);
+
+            int i = 0;
+            int j = 0;
+            while (i < sourcePaths.size() || j < targetPaths.size()) {
+                int order = i == sourcePaths.size() ? 1 :
+                    j == targetPaths.size() ? -1 : sourcePaths.get(i).compareTo(targetPaths.get(j));
+                String path = order <= 0 ? sourcePaths.get(i++) : targetPaths.get(j++);
+                if (order == 0) {
+                    j++;
+                }
+                final Path sourceFile = order <= 0 ? source.resolve(path) : null;
+                final Path targetFile = order >= 0 ? target.resolve(path) : null;
+                final String relativePath = path;
+                if (pending.size() >= maxPending) {
+                    listener.compared(get(pending.removeFirst()));
+                }
+                pending.addLast(executor.submit(new Callable<Result>() {
+                    public Result call() throws IOException {
+                        return compare(relativePath, sourceFile, targetFile);
+                    }
+                }));
+            }
+            while (!pending.isEmpty()) {
+                listener.compared(get(pending.removeFirst()));
+            }
+        } finally {
+            // Pending comparisons are not needed if comparison or listener failed
+            sourceWalk.cancel(true);
+            for (Future<Result> future : pending) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Comparison of trees is interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Collect relative paths of regular files. Separator of paths is <code>/</code>, and paths are sorted.
+     *
+     * @param root Directory
+     * @return Paths
+     * @throws IOException If directory can't be read
+     */
+    private static List<String> walk(final Path root) throws IOException {
+        final List<String> paths = new ArrayList<String>();
+        if (Files.isDirectory(root)) {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                    if (attributes.isRegularFile()) {
+                        StringBuilder path = new StringBuilder();
+                        for (Path name : root.relativize(file)) {
+                            if (path.length() > 0) {
+                                path.append('/');
+                            }
+                            path.append(name);
+                        }
+                        paths.add(path.toString());
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private Result compare(String path, Path source, Path target) throws IOException {
+        if (source == null) {
+            return new Result(path, Status.ADDED, null, target, false, null);
+        }
+        if (target == null) {
+            return new Result(path, Status.REMOVED, source, null, false, null);
+        }
+        FileChannel sourceChannel = FileChannel.open(source, StandardOpenOption.READ);
+        try {
+            FileChannel targetChannel = FileChannel.open(target, StandardOpenOption.READ);
+            try {
+                if (sourceChannel.size() == targetChannel.size() && contentEquals(sourceChannel, targetChannel)) {
+                    return new Result(path, Status.IDENTICAL, source, target, false, null);
+                }
+                if (isBinary(sourceChannel) || isBinary(targetChannel)) {
+                    return new Result(path, Status.CHANGED, source, target, true, null);
+                }
+                LineIndex sourceIndex = LineIndex.map(sourceChannel, charset, LineIndex.SEGMENT_SIZE);
+                LineIndex targetIndex = LineIndex.map(targetChannel, charset, LineIndex.SEGMENT_SIZE);
+                int[][] ids = LineIndex.intern(sourceIndex, targetIndex);
+                EditScript script = DiffAlgorithm.script(ids[0], ids[1], true, engine);
+                return new Result(path, Status.CHANGED, source, target, false, script);
+            } finally {
+                targetChannel.close();
+            }
+        } finally {
+            sourceChannel.close();
+        }
+    }
+
+    /**
+     * Compare content of files of equal size. Files are mapped by segments and compared until first mismatch.
+     *
+     * @param source Source file
+     * @param target Target file
+     * @return <code>true</code> if all bytes are equal
+     * @throws IOException If files can't be read
+     */
+    private static boolean contentEquals(FileChannel source, FileChannel target) throws IOException {
+        long size = source.size();
+        for (long position = 0; position < size; position += SEGMENT_SIZE) {
+            long length = Math.min(SEGMENT_SIZE, size - position);
+            ByteBuffer sourceBuffer = source.map(FileChannel.MapMode.READ_ONLY, position, length);
+            ByteBuffer targetBuffer = target.map(FileChannel.MapMode.READ_ONLY, position, length);
+            if (!sourceBuffer.equals(targetBuffer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether file is binary. File is binary if it has zero byte at begin, as in Git.
+     *
+     * @param channel File
+     * @return <code>true</code> if file is binary
+     * @throws IOException If file can't be read
+     */
+    private static boolean isBinary(FileChannel channel) throws IOException {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(BINARY_CHECK_SIZE, channel.size()));
+        while (buffer.hasRemaining()) {
+            if (buffer.get() == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Status of file.
+     */
+    public static enum Status {
+        /**
+         * File is only in target tree
+         */
+        ADDED,
+        /**
+         * File is only in source tree
+         */
+        REMOVED,
+        /**
+         * Files have equal content
+         */
+        IDENTICAL,
+        /**
+         * Files are different
+         */
+        CHANGED
+    }
+
+    /**
+     * Result of comparison of file.
+     */
+    public static final class Result {
+        private final String path;
+        private final Status status;
+        private final Path source;
+        private final Path target;
+        private final boolean binary;
+        private final EditScript script;
+
+        Result(String path, Status status, Path source, Path target, boolean binary, EditScript script) {
+            this.path = path;
+            this.status = status;
+            this.source = source;
+            this.target = target;
+            this.binary = binary;
+            this.script = script;
+        }
+
+        /**
+         * @return Relative path of file with <code>/</code> separators
+         */
+        public String getPath() {
+            return path;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return Source file or <code>null</code> if file is added
+         */
+        public Path getSource() {
+            return source;
+        }
+
+        /**
+         * @return Target file or <code>null</code> if file is removed
+         */
+        public Path getTarget() {
+            return target;
+        }
+
+        /**
+         * @return <code>true</code> if changed file is binary, so its lines are not compared
+         */
+        public boolean isBinary() {
+            return binary;
+        }
+
+        /**
+         * @return Script of lines of changed text file, otherwise <code>null</code>
+         */
+        public EditScript getScript() {
+            return script;
+        }
+    }
+
+    /**
+     * Listener of results. Listener is called in thread of comparison, in order of relative paths.
+     */
+    public static interface Listener {
+        void compared(Result result);
+    }
+}
@@ -0,0 +1,155 @@
+package org.trinkets.util.diff;
+
+import java.io.IOException;
+
+/**
+ * Writer of diff of lines in unified format. Writer walks {@link org.trinkets.util.diff.DiffNode}s once, and
+ * hunk headers are computed from offsets and lengths of nodes, so source and target are not scanned.
+ * Only offsets of changes of current hunk are kept, and hunk is written to output as soon as it is complete.
+ *
+ * @author Alexey Efimov
+ * @see org.trinkets.util.diff.Patch
+ */
+public class UnifiedDiffWriter {
+    private static final String NO_NEWLINE = "\\ No newline at end of file\n";
+
+    private final Appendable output;
+    private int context = 3;
+
+    private String sourceName;
+    private String targetName;
+    private String[] source;
+    private String[] target;
+    private boolean headerWritten;
+    /**
+     * Source offset, source length, target offset and target length of each change of current hunk
+     */
+    private int[] changes = new int[16];
+    private int changeCount;
+
+    public UnifiedDiffWriter(Appendable output) {
+        this.output = output;
+    }
+
+    public int getContext() {
+        return context;
+    }
+
+    /**
+     * Set count of unchanged lines around changes. Changes separated by at most two contexts are
+     * written in one hunk.
+     *
+     * @param context Count of lines
+     */
+    public void setContext(int context) {
+        this.context = context;
+    }
+
+    /**
+     * Write diff of lines. Nothing is written if lines are equal.
+     *
+     * @param sourceName Name of source for <code>---</code> header
+     * @param targetName Name of target for <code>+++</code> header
+     * @param source     Source lines with separators
+     * @param target     Target lines with separators
+     * @param node       First node of diff of lines
+     * @throws IOException If output can't be written
+     */
+    public void write(String sourceName, String targetName, String[] source, String[] target, DiffNode node)
+        throws IOException {
+        this.sourceName = sourceName;
+        this.targetName = targetName;
+        this.source = source;
+        this.target = target;
+        this.headerWritten = false;
+        this.changeCount = 0;
+
+        int sourceOffset = 0;
+        int targetOffset = 0;
+        int changedEnd = 0;
+        while (node != null) {
+            int sourceLength = node.getLength();
+            int targetLength = node.hasOpposite() ? node.getOpposite().getLength() : sourceLength;
+            if (!DiffNode.Type.UNCHANGED.equals(node.getType()) && sourceLength + targetLength > 0) {
+                if (changeCount > 0 && sourceOffset - changedEnd > 2 * context) {
+                    writeHunk();
+                }
+                addChange(sourceOffset, sourceLength, targetOffset, targetLength);
+                changedEnd = sourceOffset + sourceLength;
+            }
+            sourceOffset += sourceLength;
+            targetOffset += targetLength;
+            node = node.getNext();
+        }
+        if (changeCount > 0) {
+            writeHunk();
+        }
+    }
+
+    private void addChange(int sourceOffset, int sourceLength, int targetOffset, int targetLength) {
+        if (changeCount * 4 == changes.length) {
+            int[] newChanges = new int[changes.length * 2];
+            System.arraycopy(changes, 0, newChanges, 0, changes.length);
+            changes = newChanges;
+        }
+        changes[changeCount * 4] = sourceOffset;
+        changes[changeCount * 4 + 1] = sourceLength;
+        changes[changeCount * 4 + 2] = targetOffset;
+        changes[changeCount * 4 + 3] = targetLength;
+        changeCount++;
+    }
+
+    private void writeHunk() throws IOException {
+        if (!headerWritten) {
+            output.append("--- ").append(sourceName).append('\n');
+            output.append("+++ ").append(targetName).append('\n');
+            headerWritten = true;
+        }
+        int last = (changeCount - 1) * 4;
+        int sourceStart = Math.max(0, changes[0] - context);
+        int targetStart = changes[2] - (changes[0] - sourceStart);
+        int changedEnd = changes[last] + changes[last + 1];
+        int sourceEnd = Math.min(source.length, changedEnd + context);
+        int targetEnd = changes[last + 2] + changes[last + 3] + (sourceEnd - changedEnd);
+
+        output.append("@@ -");
+        appendRange(sourceStart, sourceEnd - sourceStart);
+        output.append(" +");
+        appendRange(targetStart, targetEnd - targetStart);
+        output.append(" @@\n");
+
+        int line = sourceStart;
+        for (int i = 0; i < changeCount * 4; i += 4) {
+            appendLines(' ', source, line, changes[i]);
+            appendLines('-', source, changes[i], changes[i] + changes[i + 1]);
+            appendLines('+', target, changes[i + 2], changes[i + 2] + changes[i + 3]);
+            line = changes[i] + changes[i + 1];
+        }
+        appendLines(' ', source, line, sourceEnd);
+        changeCount = 0;
+    }
+
+    /**
+     * Append range of hunk header. Lines are numbered from one, and empty range starts at the line before it.
+     *
+     * @param start  Start of range
+     * @param length Length of range
+     * @throws IOException If output can't be written
+     */
+    private void appendRange(int start, int length) throws IOException {
+        output.append(String.valueOf(length == 0 ? start : start + 1));
+        if (length != 1) {
+            output.append(',').append(String.valueOf(length));
+        }
+    }
+
+    private void appendLines(char prefix, String[] lines, int start, int end) throws IOException {
+        for (int i = start; i < end; i++) {
+            String line = lines[i];
+            output.append(prefix).append(line);
+            if (line.length() == 0 || !Strings.isLineSeparator(line.charAt(line.length() - 1))) {
+                output.append('\n').append(NO_NEWLINE);
+            }
+        }
+    }
+}